@@ -0,0 +1,135 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// AI Lab micro-batching over batch.size x batch.linger, against sending every request on its own.
+// 32 callers wait for their response in a loop (throughput), the sampled call time is the latency
+// one caller sees. The AI Lab is simulated: it works on 8 calls at a time and a call costs a fixed
+// overhead plus a little per email, which is what makes batching pay off.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(32)
+public class BatcherBenchmark {
+
+  private static final MailDropRequest REQUEST =
+      new MailDropRequest(
+          "aggregated_email_model",
+          "id",
+          "ops@bank.com",
+          new String[0],
+          new String[0],
+          "Allocation",
+          "Buy 100 AAPL",
+          "2024-01-01T09:00");
+
+  @State(Scope.Benchmark)
+  public static class Batched {
+
+    @Param({"4", "16", "64"})
+    int batchSize;
+
+    @Param({"5", "20", "50"})
+    int lingerMillis;
+
+    MailDropBatcher batcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      batcher =
+          new MailDropBatcher(
+              new SimulatedAiLab(), true, batchSize, Duration.ofMillis(lingerMillis), 8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      batcher.shutdown();
+    }
+  }
+
+  @Benchmark
+  public MailDropResponse batched(Batched batched) {
+    return batched.batcher.send(REQUEST).block();
+  }
+
+  @State(Scope.Benchmark)
+  public static class Unbatched {
+
+    MailDropBatcher batcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      batcher = new MailDropBatcher(new SimulatedAiLab(), false, 1, Duration.ZERO, 1);
+    }
+  }
+
+  @Benchmark
+  public MailDropResponse unbatched(Unbatched unbatched) {
+    return unbatched.batcher.send(REQUEST).block();
+  }
+
+  // 10ms per call plus 0.5ms per email, at most 8 calls at a time, later ones queue
+  static final class SimulatedAiLab extends MailDropClient {
+
+    private static final long CALL_MICROS = 10_000;
+    private static final long EMAIL_MICROS = 500;
+
+    private final Semaphore workers = new Semaphore(8, true);
+
+    SimulatedAiLab() {
+      super(null, "", "", null, null, null);
+    }
+
+    @Override
+    Mono<MailDropResponse> send(MailDropRequest request) {
+      return call(1).map(responses -> responses.get(0));
+    }
+
+    @Override
+    Mono<List<MailDropResponse>> sendBatch(List<MailDropRequest> requests) {
+      return call(requests.size());
+    }
+
+    private Mono<List<MailDropResponse>> call(int emails) {
+      return Mono.fromCallable(
+              () -> {
+                workers.acquire();
+                try {
+                  TimeUnit.MICROSECONDS.sleep(CALL_MICROS + EMAIL_MICROS * emails);
+                } finally {
+                  workers.release();
+                }
+                List<MailDropResponse> responses = new ArrayList<>(emails);
+                for (int i = 0; i < emails; i++) {
+                  responses.add(new MailDropResponse(null));
+                }
+                return responses;
+              })
+          .subscribeOn(Schedulers.boundedElastic());
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package org.example;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Body extraction from parsed messages, including nested multiparts with attachments to skip
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BodyBenchmark {
+
+  @Param({"plain.eml", "outlook-html.eml", "nested-attachments.eml"})
+  String file;
+
+  private final Session session = Session.getDefaultInstance(new Properties());
+  private MimeBodyExtractor extractor;
+  private byte[] content;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    extractor = new MimeBodyExtractor(new SimpleMeterRegistry(), 1_000_000);
+    content = Corpus.bytes("eml/" + file);
+  }
+
+  // A message caches its parsed multiparts, so each call starts from a fresh one. Header parsing
+  // is included, ParseBenchmark.emlMimeMessage measures it on its own.
+  @Benchmark
+  public MimeBodyExtractor.BodyText extractBody() throws Exception {
+    return extractor.extract(new MimeMessage(session, new ByteArrayInputStream(content)));
+  }
+}
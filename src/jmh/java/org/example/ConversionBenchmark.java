@@ -0,0 +1,131 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.example.EmailParserApplication.Check;
+import org.example.EmailParserApplication.Contract;
+import org.example.EmailParserApplication.Error;
+import org.example.EmailParserApplication.Field;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.example.EmailParserApplication.Quote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// AI response to trades, and JSON (de)serialization of what goes over the wire
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversionBenchmark {
+
+  private EmailParseService parseService;
+  private ObjectMapper objectMapper;
+  private MailDropResponse response;
+  private Email email;
+  private String responseJson;
+  private String emailJson;
+  private String tradeJson;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    parseService = Corpus.parseService(Corpus.repository());
+    objectMapper = Corpus.objectMapper();
+    response = response(3);
+    email =
+        new Email(
+            1L,
+            "RE: Allocations 6 May",
+            "jane.doe@bank.com",
+            new String[] {"allocations@bank.com"},
+            new String[0],
+            Corpus.text("html/outlook-reply.html"),
+            false,
+            convert(),
+            false,
+            LocalDateTime.now(),
+            LocalDateTime.now(),
+            1);
+    responseJson = objectMapper.writeValueAsString(response);
+    emailJson = objectMapper.writeValueAsString(email);
+    tradeJson = objectMapper.writeValueAsString(email.trades().get(0));
+  }
+
+  // Two booked trades and one the model could not solve, like the mock AI Lab returns
+  private static MailDropResponse response(int quotes) {
+    List<Quote> result = new ArrayList<>();
+    for (int i = 0; i < quotes; i++) {
+      result.add(
+          i % 3 == 2
+              ? new Quote(
+                  new Check(
+                      false,
+                      List.of(
+                          new Error(
+                              10100,
+                              List.of(
+                                  new Field("output_json_clientWay", "output_json_clientWay")))),
+                      "Failed to predict the output fields",
+                      "Failed to predict the output fields",
+                      "Solving error"),
+                  new Contract("", "", "", null, null, "", "", "", "", "", "", ""))
+              : new Quote(
+                  new Check(true, null, null, null, null),
+                  new Contract(
+                      "Buy",
+                      "USD",
+                      "US0378331005",
+                      2_500_000.0,
+                      101.25,
+                      "AAPL",
+                      "2024-05-08T00:00",
+                      "2024-05-06T00:00",
+                      "SCHEMA_ID_" + i,
+                      "EQUITY",
+                      "1.0",
+                      "SOLVE_HEADER_" + i)));
+    }
+    return new MailDropResponse(result);
+  }
+
+  @Benchmark
+  public List<Trade> convert() {
+    List<Trade> trades = new ArrayList<>(response.quotes().size());
+    for (Quote quote : response.quotes()) {
+      trades.add(parseService.convertQuoteToTrade(quote, 1L));
+    }
+    return trades;
+  }
+
+  @Benchmark
+  public MailDropResponse readMailDropResponse() throws Exception {
+    return objectMapper.readValue(responseJson, MailDropResponse.class);
+  }
+
+  @Benchmark
+  public String writeEmail() throws Exception {
+    return objectMapper.writeValueAsString(email);
+  }
+
+  @Benchmark
+  public Email readEmail() throws Exception {
+    return objectMapper.readValue(emailJson, Email.class);
+  }
+
+  @Benchmark
+  public String writeTrade() throws Exception {
+    return objectMapper.writeValueAsString(email.trades().get(0));
+  }
+
+  @Benchmark
+  public Trade readTrade() throws Exception {
+    return objectMapper.readValue(tradeJson, Trade.class);
+  }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+// Synthetic emails under src/jmh/resources/corpus, and the parse pipeline wired up without Spring
+final class Corpus {
+
+  private Corpus() {}
+
+  static byte[] bytes(String name) {
+    try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+      if (in == null) {
+        throw new IllegalArgumentException("No corpus file " + name);
+      }
+      return in.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static String text(String name) {
+    return new String(bytes(name), StandardCharsets.UTF_8);
+  }
+
+  // An EML of about the given size: a short text body and one base64 attachment that makes up the
+  // size
+  static byte[] emlUpload(int megabytes) {
+    byte[] attachment = new byte[megabytes * 1024 * 1024 * 3 / 4];
+    new Random(42).nextBytes(attachment);
+    return ("From: ops@bank.com\r\n"
+            + "To: allocations@bank.com\r\n"
+            + "Subject: Allocation\r\n"
+            + "MIME-Version: 1.0\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"b\"\r\n"
+            + "\r\n"
+            + "--b\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "\r\n"
+            + "Buy 100 AAPL at 180.5, settle T+2\r\n"
+            + "--b\r\n"
+            + "Content-Type: application/pdf; name=\"confirm.pdf\"\r\n"
+            + "Content-Transfer-Encoding: base64\r\n"
+            + "\r\n"
+            + Base64.getMimeEncoder().encodeToString(attachment)
+            + "\r\n--b--\r\n")
+        .getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // An MSG of about the given size, the attachment makes up the size
+  static byte[] msgUpload(int megabytes) {
+    try {
+      return MsgCorpusGenerator.msg(
+          "Allocation",
+          null,
+          "Buy 100 AAPL at 180.5, settle T+2",
+          Math.max(0, megabytes * 1024 * 1024 - 8192));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Same settings as the mapper Spring Boot builds for the controllers and the AI client
+  static ObjectMapper objectMapper() {
+    return Jackson2ObjectMapperBuilder.json().build();
+  }
+
+  // No AI client and no persistence, only the in-process stages are exercised
+  static EmailParseService parseService(EmailRepository repository) {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    return new EmailParseService(
+        new MailDropBatcher(null, false, 16, Duration.ofMillis(20), 8),
+        repository,
+        new ExtractionCache(meterRegistry, false, 0, Duration.ZERO),
+        new MimeBodyExtractor(meterRegistry, 1_000_000),
+        new HtmlNormalizer(meterRegistry, true, false),
+        new PayloadLogger(objectMapper(), 0.0, 4096, false),
+        new ParseMetrics(meterRegistry));
+  }
+
+  static InMemoryEmailRepository repository() {
+    return new InMemoryEmailRepository(new NoOpEmailPersistence(), List.of());
+  }
+}
@@ -0,0 +1,79 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.poi.poifs.filesystem.DirectoryEntry;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+// Writes the synthetic Outlook MSG files of the benchmark corpus. Only the streams the parsers
+// read are present, plus recipients and an attachment so both parsers see a realistic container.
+//   java ... org.example.MsgCorpusGenerator src/jmh/resources/corpus
+public class MsgCorpusGenerator {
+
+  public static void main(String[] args) throws IOException {
+    Path corpus = Path.of(args.length > 0 ? args[0] : "src/jmh/resources/corpus");
+    String html = Corpus.text("html/outlook-reply.html");
+    Files.write(
+        corpus.resolve("msg/plain.msg"), msg("Allocation BUY 250000", null, "BUY 250,000 AAPL", 0));
+    Files.write(
+        corpus.resolve("msg/outlook-attachment.msg"),
+        msg("RE: Allocations 6 May", html, "Please book the allocations below.", 256 * 1024));
+  }
+
+  static byte[] msg(String subject, String html, String text, int attachment) throws IOException {
+    try (POIFSFileSystem fileSystem = new POIFSFileSystem()) {
+      DirectoryEntry root = fileSystem.getRoot();
+      unicode(root, 0x0037, subject);
+      unicode(root, 0x0C1A, "Jane Doe");
+      unicode(root, 0x0C1F, "jane.doe@bank.com");
+      unicode(root, 0x5D01, "jane.doe@bank.com");
+      unicode(root, 0x0E04, "allocations@bank.com");
+      unicode(root, 0x1000, text);
+      if (html != null) {
+        document(root, "__substg1.0_10130102", html.getBytes(StandardCharsets.UTF_8));
+      }
+
+      // PR_INTERNET_CPID = 65001 (UTF-8)
+      ByteBuffer properties = ByteBuffer.allocate(32 + 16).order(ByteOrder.LITTLE_ENDIAN);
+      properties.position(32);
+      properties.putShort((short) 0x0003).putShort((short) 0x3FDE).putInt(6).putInt(65001);
+      document(root, "__properties_version1.0", properties.array());
+      root.createDirectory("__nameid_version1.0");
+
+      DirectoryEntry recipient = root.createDirectory("__recip_version1.0_#00000000");
+      unicode(recipient, 0x3001, "Allocations");
+      unicode(recipient, 0x39FE, "allocations@bank.com");
+
+      if (attachment > 0) {
+        DirectoryEntry attach = root.createDirectory("__attach_version1.0_#00000000");
+        unicode(attach, 0x3707, "confirmation.pdf");
+        byte[] content = new byte[attachment];
+        new Random(42).nextBytes(content);
+        document(attach, "__substg1.0_37010102", content);
+      }
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(attachment + 64 * 1024);
+      fileSystem.writeFilesystem(out);
+      return out.toByteArray();
+    }
+  }
+
+  private static void unicode(DirectoryEntry directory, int id, String value) throws IOException {
+    document(
+        directory,
+        String.format("__substg1.0_%04X001F", id),
+        value.getBytes(StandardCharsets.UTF_16LE));
+  }
+
+  private static void document(DirectoryEntry directory, String name, byte[] content)
+      throws IOException {
+    directory.createDocument(name, new ByteArrayInputStream(content));
+  }
+}
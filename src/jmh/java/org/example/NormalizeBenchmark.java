@@ -0,0 +1,41 @@
+package org.example;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// HTML normalization of extracted bodies, with and without quoted history
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NormalizeBenchmark {
+
+  @Param({"outlook-reply", "gmail-forward"})
+  String page;
+
+  @Param({"false", "true"})
+  boolean stripQuoted;
+
+  private String html;
+  private HtmlNormalizer normalizer;
+
+  // HtmlNormalizerTest checks that the corpus pages keep their trade data
+  @Setup(Level.Trial)
+  public void setUp() {
+    html = Corpus.text("html/" + page + ".html");
+    normalizer = new HtmlNormalizer(new SimpleMeterRegistry(), true, stripQuoted);
+  }
+
+  @Benchmark
+  public String normalize() {
+    return normalizer.normalize(html);
+  }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// From uploaded file to AI request: MIME and MSG parsing, and the whole parseMessage step
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Eml {
+
+    @Param({"plain.eml", "outlook-html.eml", "nested-attachments.eml"})
+    String file;
+
+    byte[] content;
+    EmailRequest jsonRequest;
+
+    @Setup(Level.Trial)
+    public void load() {
+      content = Corpus.bytes("eml/" + file);
+      jsonRequest = new EmailRequest(new String(content), "eml");
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Msg {
+
+    @Param({"plain.msg", "outlook-attachment.msg"})
+    String file;
+
+    byte[] content;
+
+    @Setup(Level.Trial)
+    public void load() {
+      content = Corpus.bytes("msg/" + file);
+    }
+  }
+
+  private final Session session = Session.getDefaultInstance(new Properties());
+  private EmailParseService parseService;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    parseService = Corpus.parseService(Corpus.repository());
+  }
+
+  // Headers only, MimeMessage defers the content until it is asked for
+  @Benchmark
+  public MimeMessage emlMimeMessage(Eml eml) throws Exception {
+    MimeMessage message = new MimeMessage(session, new ByteArrayInputStream(eml.content));
+    message.getSubject();
+    return message;
+  }
+
+  // Parse, body extraction and normalization, as /api/parse does for JSON and for raw uploads
+  @Benchmark
+  public ParsedMessage emlFromJson(Eml eml) throws Exception {
+    return parseService.parseMessage(eml.jsonRequest);
+  }
+
+  @Benchmark
+  public ParsedMessage emlFromStream(Eml eml) throws Exception {
+    return parseService.parseMessage(new ByteArrayInputStream(eml.content), "eml");
+  }
+
+  // Legacy MSG path: MAPIMessage, then a MimeMessage built from it
+  @Benchmark
+  public MimeMessage msgParseMsgFile(Msg msg) throws Exception {
+    return EmailParseService.parseMsgFile(new ByteArrayInputStream(msg.content), session);
+  }
+
+  // parse.msg.fast-path: only the needed streams of the OLE2 container are read
+  @Benchmark
+  public MsgFieldReader.MsgFields msgFieldReader(Msg msg) throws Exception {
+    return MsgFieldReader.read(new ByteArrayInputStream(msg.content));
+  }
+}
@@ -0,0 +1,144 @@
+package org.example;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// The repository at different store sizes: the GET /api/emails listing read from the ordered index
+// against copying and sorting the whole store as the endpoint used to, lookups by email and trade
+// id, and updates, which also move the email in the secondary indexes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RepositoryBenchmark {
+
+  private static final int PAGE = 50;
+  private static final EmailFilter ALL = new EmailFilter(null, null, null, null, null);
+  private static final EmailFilter FAILED_FROM_OPS =
+      new EmailFilter(null, "ops@", null, null, EmailStatus.FAILED);
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int size;
+
+  private InMemoryEmailRepository repository;
+  private long tradeCount;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    repository = Corpus.repository();
+    String[] senders = {"trader1@bank.com", "ops@bank.com", "settlement@bank.com"};
+    Random random = new Random(42);
+    LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+    for (int i = 0; i < size; i++) {
+      long emailId = repository.nextEmailId();
+      LocalDateTime createdAt = start.plusSeconds(random.nextInt(90 * 24 * 3600));
+      List<Trade> trades = new ArrayList<>();
+      for (int j = random.nextInt(3) + 1; j > 0; j--) {
+        boolean success = random.nextDouble() > 0.2;
+        trades.add(
+            new Trade(
+                repository.nextTradeId(),
+                emailId,
+                success,
+                success ? null : "Failed",
+                success ? null : List.of(10100),
+                "BUY",
+                "USD",
+                "US0378331005",
+                "AAPL",
+                1e6,
+                null,
+                "EQUITY",
+                "1.0",
+                null,
+                null,
+                null,
+                100.0,
+                101.25,
+                null,
+                null,
+                createdAt));
+      }
+      repository.add(
+          new Email(
+              emailId,
+              "Allocation #" + i,
+              senders[random.nextInt(senders.length)],
+              new String[0],
+              new String[0],
+              "body",
+              false,
+              trades,
+              random.nextBoolean(),
+              createdAt,
+              createdAt,
+              1));
+    }
+    tradeCount = repository.nextTradeId() - 1;
+  }
+
+  @Benchmark
+  public List<Email> firstPage() {
+    return repository.find(ALL, null, PAGE);
+  }
+
+  // A selective filter has to skip most of the index to fill a page
+  @Benchmark
+  public List<Email> filteredPage() {
+    return repository.find(FAILED_FROM_OPS, null, PAGE);
+  }
+
+  @Benchmark
+  public Optional<Email> findById() {
+    return repository.findById(ThreadLocalRandom.current().nextLong(size) + 1);
+  }
+
+  @Benchmark
+  public Optional<Trade> findTradeById() {
+    return repository.findTradeById(ThreadLocalRandom.current().nextLong(tradeCount) + 1);
+  }
+
+  // An edit of one field, as PATCH /api/email/{id} makes it
+  @Benchmark
+  public Optional<Email> update() {
+    return repository.update(
+        ThreadLocalRandom.current().nextLong(size) + 1,
+        email ->
+            new Email(
+                email.id(),
+                email.subject(),
+                email.fromEmail(),
+                email.toEmails(),
+                email.cc(),
+                email.body(),
+                email.bodyTruncated(),
+                email.trades(),
+                !Boolean.TRUE.equals(email.sent()),
+                email.createdAt(),
+                email.modifiedAt(),
+                email.version()));
+  }
+
+  @Benchmark
+  public List<Email> sortAll() {
+    List<Email> emails = new ArrayList<>(repository.findAll());
+    emails.sort(Comparator.comparing(Email::createdAt).reversed());
+    return emails.subList(0, Math.min(PAGE, emails.size()));
+  }
+}
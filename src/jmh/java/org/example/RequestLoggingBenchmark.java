@@ -0,0 +1,171 @@
+package org.example;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+// What the request log costs a JSON parse request, over body capture sizes, against the filter
+// switched off (request-log.enabled=false). Meant to be read with the gc profiler as well: the
+// capture buffer and the formatted line are the allocation per request. The request is a JSON
+// upload of an EML with an attachment, read by the "controller" the way Jackson reads it. Lines
+// are fully formatted and written to a stream that discards them.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestLoggingBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Request {
+
+    @Param({"16", "256"})
+    int bodyKb;
+
+    byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+      String attachment = "QUFQTCAxMDAgQCAxODAuNQ==".repeat(bodyKb * 1024 / 24);
+      String eml =
+          "From: ops@bank.com\r\nTo: allocations@bank.com\r\nSubject: Allocation\r\n"
+              + "Content-Type: multipart/mixed; boundary=\"b\"\r\n\r\n--b\r\n"
+              + "Content-Type: text/plain\r\n\r\nBuy 100 AAPL at 180.5\r\n--b\r\n"
+              + "Content-Type: application/pdf\r\nContent-Transfer-Encoding: base64\r\n\r\n"
+              + attachment
+              + "\r\n--b--\r\n";
+      body = Corpus.objectMapper().writeValueAsBytes(new EmailRequest(eml, "eml"));
+      // Keep the lines out of the benchmark output, but format and write every one of them
+      LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+      PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+      encoder.setContext(context);
+      encoder.setPattern("%d %-5level [%thread] %logger{36} - %msg%n");
+      encoder.start();
+      OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+      appender.setContext(context);
+      appender.setEncoder(encoder);
+      appender.setOutputStream(OutputStream.nullOutputStream());
+      appender.start();
+      Logger logger = context.getLogger(RequestLoggingFilter.class);
+      logger.detachAndStopAllAppenders();
+      logger.addAppender(appender);
+      logger.setAdditive(false);
+      logger.setLevel(ch.qos.logback.classic.Level.INFO);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Logged {
+
+    // 0 logs the line without a body prefix, 256 is the default
+    @Param({"0", "256", "4096"})
+    int bodyPrefix;
+
+    RequestLoggingFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      filter = new RequestLoggingFilter(true, bodyPrefix);
+    }
+  }
+
+  @Benchmark
+  public MockHttpServletResponse logged(Request request, Logged logged) throws Exception {
+    return handle(logged.filter, request.body);
+  }
+
+  @State(Scope.Benchmark)
+  public static class NotLogged {
+
+    RequestLoggingFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      filter = new RequestLoggingFilter(false, 256);
+    }
+  }
+
+  @Benchmark
+  public MockHttpServletResponse notLogged(Request request, NotLogged notLogged) throws Exception {
+    return handle(notLogged.filter, request.body);
+  }
+
+  private static final FilterChain CONTROLLER =
+      (request, response) -> {
+        byte[] chunk = new byte[8192];
+        try (InputStream in = request.getInputStream()) {
+          while (in.read(chunk, 0, chunk.length) >= 0) {}
+        }
+        ((MockHttpServletResponse) response).setStatus(200);
+      };
+
+  // A request's body can be read once, so each call gets a new one
+  private static MockHttpServletResponse handle(RequestLoggingFilter filter, byte[] body)
+      throws Exception {
+    MockHttpServletRequest request = new BodyRequest(body);
+    request.setContentType("application/json");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, CONTROLLER);
+    return response;
+  }
+
+  // The mock request's stream reads a byte at a time, Tomcat's reads what is asked for
+  private static final class BodyRequest extends MockHttpServletRequest {
+
+    private final ServletInputStream in;
+
+    BodyRequest(byte[] body) {
+      super("POST", "/api/parse");
+      setContent(body);
+      ByteArrayInputStream bytes = new ByteArrayInputStream(body);
+      in =
+          new ServletInputStream() {
+            @Override
+            public int read() {
+              return bytes.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+              return bytes.read(b, off, len);
+            }
+
+            @Override
+            public boolean isFinished() {
+              return bytes.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+              return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {}
+          };
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      return in;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package org.example;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Trade aggregations over the column store, on and off the heap, against summing the same
+// trades from the email object graph. Clients are either a few hundred names or one per email,
+// which is what the parser produces (CLIENT_ and the email id).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class TradeStoreBenchmark {
+
+  private static final String[] CURRENCIES = {"USD", "EUR", "GBP", "CHF", "JPY", "HKD"};
+  private static final String[] SCHEMA_TYPES = {"EQUITY", "BOND", "FX"};
+
+  @Param({"1000000", "5000000"})
+  int trades;
+
+  @Param({"false", "true"})
+  boolean offHeap;
+
+  // A number of distinct clients, or "email" for one per email
+  @Param({"200", "email"})
+  String clients;
+
+  private TradeColumnStore store;
+  private List<Email> emails;
+  private LocalDate from;
+  private LocalDate to;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    store = new TradeColumnStore(new SimpleMeterRegistry(), offHeap, 1000);
+    emails = new ArrayList<>();
+    List<PendingEmailChanges.Change> changes = new ArrayList<>();
+    Random random = new Random(42);
+    LocalDate start = LocalDate.of(2024, 1, 1);
+    LocalDateTime createdAt = start.atStartOfDay();
+    String[] days = new String[365];
+    for (int i = 0; i < days.length; i++) {
+      days[i] = start.plusDays(i).toString();
+    }
+    int clientCount = clients.equals("email") ? 0 : Integer.parseInt(clients);
+    long tradeId = 1;
+    for (long emailId = 1; tradeId <= trades; emailId++) {
+      List<Trade> emailTrades = new ArrayList<>();
+      for (int j = 0; j < 2 && tradeId <= trades; j++) {
+        boolean success = random.nextDouble() > 0.1;
+        emailTrades.add(
+            new Trade(
+                tradeId++,
+                emailId,
+                success,
+                success ? null : "Failed",
+                null,
+                random.nextBoolean() ? "BUY" : "SELL",
+                CURRENCIES[random.nextInt(CURRENCIES.length)],
+                "US0378331005",
+                "AAPL",
+                random.nextDouble() * 1e6,
+                null,
+                SCHEMA_TYPES[random.nextInt(SCHEMA_TYPES.length)],
+                random.nextBoolean() ? "1.0" : "2.0",
+                null,
+                clientCount == 0 ? "CLIENT_" + emailId : "CLIENT" + random.nextInt(clientCount),
+                null,
+                null,
+                null,
+                days[random.nextInt(days.length)],
+                null,
+                createdAt));
+      }
+      Email email =
+          new Email(
+              emailId,
+              "Allocation",
+              "ops@bank.com",
+              new String[0],
+              new String[0],
+              "body",
+              false,
+              emailTrades,
+              false,
+              createdAt,
+              createdAt,
+              1);
+      emails.add(email);
+      changes.add(new PendingEmailChanges.Change(emailId, email));
+    }
+    // Loaded directly rather than through the background writer
+    store.apply(changes);
+    from = start.plusDays(90);
+    to = start.plusDays(180);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    store.shutdown();
+  }
+
+  @Benchmark
+  public List<NotionalTotal> notionalByCurrency() {
+    return store.notional(TradeGrouping.CURRENCY, null, null);
+  }
+
+  @Benchmark
+  public List<NotionalTotal> notionalByClient() {
+    return store.notional(TradeGrouping.CLIENT, null, null);
+  }
+
+  @Benchmark
+  public List<NotionalTotal> notionalByDayInRange() {
+    return store.notional(TradeGrouping.DAY, from, to);
+  }
+
+  @Benchmark
+  public List<SchemaSuccessRate> successRates() {
+    return store.successRates(null, null);
+  }
+
+  // Notional per currency the way it would be computed without the store
+  @Benchmark
+  public Map<String, Double> notionalByCurrencyFromEmails() {
+    Map<String, Double> totals = new HashMap<>();
+    for (Email email : emails) {
+      for (Trade trade : email.trades()) {
+        if (trade.isSuccess() && trade.notional() != null) {
+          totals.merge(trade.currency(), trade.notional(), Double::sum);
+        }
+      }
+    }
+    return totals;
+  }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Memory allocated per upload of the JSON endpoint against the raw stream, over upload sizes. Meant
+// to be read with the gc profiler (gc.alloc.rate.norm is the bytes allocated per upload). The
+// upload is an EML with a short text body and one attachment that makes up the size. Allocation is
+// not what an upload holds at once, UploadPeakHeap measures that.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class UploadBenchmark {
+
+  // The JSON endpoint stops at Jackson's maximum string length (5M characters in Jackson 2.15.0)
+  @Param({"1", "2", "4"})
+  int megabytes;
+
+  private byte[] eml;
+  private byte[] json;
+  private ObjectMapper objectMapper;
+  private EmailParseService parseService;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    eml = Corpus.emlUpload(megabytes);
+    objectMapper = Corpus.objectMapper();
+    json =
+        objectMapper.writeValueAsBytes(
+            new EmailRequest(new String(eml, StandardCharsets.US_ASCII), "eml"));
+    parseService = Corpus.parseService(Corpus.repository());
+  }
+
+  // POST /api/parse with JSON: the request body is read into a String, then copied to bytes
+  @Benchmark
+  public ParsedMessage json() throws Exception {
+    return parseService.parseMessage(objectMapper.readValue(json, EmailRequest.class));
+  }
+
+  // POST /api/parse as multipart or octet-stream: the request stream goes into the parser
+  @Benchmark
+  public ParsedMessage stream() throws Exception {
+    return parseService.parseMessage(new ByteArrayInputStream(eml), "eml");
+  }
+}
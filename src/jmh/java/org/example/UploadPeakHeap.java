@@ -0,0 +1,156 @@
+package org.example;
+
+import com.fasterxml.jackson.core.exc.StreamConstraintsException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Stream;
+
+// The smallest heap one upload parses in, for the JSON endpoint against the raw stream, with EML
+// and MSG uploads of 1MB to 19MB by default. Allocation (UploadBenchmark) does not show what an
+// upload holds at once, this does: each try is a fresh JVM with the serial collector, and the heap
+// is bisected down to where the upload fails with an OutOfMemoryError. The upload is read from a
+// file, as it would be from the socket, so only what the endpoint keeps of it counts. Heaps are
+// reported next to the heap a minimal upload of the same kind needs. MSG uploads take the
+// MAPIMessage path (Corpus.parseService leaves parse.msg.fast-path off).
+//   java -cp <jmh runtime classpath> org.example.UploadPeakHeap [megabytes...]
+public class UploadPeakHeap {
+
+  private static final int PARSED = 0;
+  private static final int OUT_OF_MEMORY = 3;
+  private static final int REJECTED = 4;
+
+  // Heaps tried, in MB
+  private static final int MIN_HEAP = 8;
+  private static final int MAX_HEAP = 1024;
+  private static final int STEP = 2;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 4 && args[0].equals("--upload")) {
+      System.exit(upload(args[1], args[2], Path.of(args[3])));
+    }
+    List<Integer> sizes = new ArrayList<>();
+    for (String arg : args) {
+      sizes.add(Integer.parseInt(arg));
+    }
+    if (sizes.isEmpty()) {
+      sizes = List.of(1, 3, 19);
+    }
+    Path directory = Files.createTempDirectory("upload-heap");
+    try {
+      System.out.printf(
+          "%-6s %-6s %8s %10s %15s%n", "type", "via", "upload", "heap", "over minimal");
+      for (String fileType : List.of("eml", "msg")) {
+        for (String endpoint : List.of("json", "stream")) {
+          Path minimal = write(directory, fileType, endpoint, 0);
+          int baseline = smallestHeap(fileType, endpoint, minimal);
+          for (int megabytes : sizes) {
+            Path file = write(directory, fileType, endpoint, megabytes);
+            int heap = smallestHeap(fileType, endpoint, file);
+            System.out.printf(
+                "%-6s %-6s %6dMB %10s %15s%n",
+                fileType,
+                endpoint,
+                megabytes,
+                heap < 0 ? "rejected" : heap + "MB",
+                heap < 0 ? "" : (heap - baseline) + "MB");
+          }
+        }
+      }
+    } finally {
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : files.toList()) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  // In MB, or -1 when the endpoint rejects the upload
+  private static int smallestHeap(String fileType, String endpoint, Path file) throws Exception {
+    int result = run(MAX_HEAP, fileType, endpoint, file);
+    if (result == REJECTED) {
+      return -1;
+    }
+    if (result != PARSED) {
+      throw new IllegalStateException(file + " does not parse in " + MAX_HEAP + "MB");
+    }
+    int fails = MIN_HEAP;
+    int parses = MAX_HEAP;
+    while (parses - fails > STEP) {
+      int heap = (fails + parses) / 2;
+      if (run(heap, fileType, endpoint, file) == PARSED) {
+        parses = heap;
+      } else {
+        fails = heap;
+      }
+    }
+    return parses;
+  }
+
+  private static int run(int heap, String fileType, String endpoint, Path file) throws Exception {
+    Process process =
+        new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx" + heap + "m",
+                "-XX:+UseSerialGC",
+                "-cp",
+                System.getProperty("java.class.path"),
+                UploadPeakHeap.class.getName(),
+                "--upload",
+                fileType,
+                endpoint,
+                file.toString())
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    return process.waitFor();
+  }
+
+  // Runs in the measured JVM: one upload the way the controller hands it to the parse service
+  private static int upload(String fileType, String endpoint, Path file) throws Exception {
+    EmailParseService parseService = Corpus.parseService(Corpus.repository());
+    try {
+      if (endpoint.equals("json")) {
+        ObjectMapper objectMapper = Corpus.objectMapper();
+        parseService.parseMessage(objectMapper.readValue(file.toFile(), EmailRequest.class));
+      } else {
+        try (InputStream in = Files.newInputStream(file)) {
+          parseService.parseMessage(in, fileType);
+        }
+      }
+      return PARSED;
+    } catch (OutOfMemoryError e) {
+      return OUT_OF_MEMORY;
+    } catch (JsonMappingException e) {
+      // Past Jackson's maximum string length
+      if (e.getCause() instanceof StreamConstraintsException) {
+        return REJECTED;
+      }
+      throw e;
+    }
+  }
+
+  // Size 0 is the minimal upload, without an attachment
+  private static Path write(Path directory, String fileType, String endpoint, int megabytes)
+      throws IOException {
+    byte[] content =
+        fileType.equals("msg") ? Corpus.msgUpload(megabytes) : Corpus.emlUpload(megabytes);
+    if (endpoint.equals("json")) {
+      String body =
+          fileType.equals("msg")
+              ? Base64.getEncoder().encodeToString(content)
+              : new String(content, StandardCharsets.US_ASCII);
+      content = Corpus.objectMapper().writeValueAsBytes(new EmailRequest(body, fileType));
+    }
+    return Files.write(directory.resolve(fileType + "-" + endpoint + "-" + megabytes), content);
+  }
+}
@@ -0,0 +1,411 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+// Open-loop load generator for a running instance: requests are started at a fixed rate whether
+// or not earlier ones have finished, and latency is measured from the moment a request was due,
+// so a stalled server shows up in the percentiles instead of slowing the generator down.
+//
+//   ./gradlew loadTest -Pload.rps=50 -Pload.duration=60s -Pload.mix=parse:1,list:5,detail:4
+//
+// Options (--name=value): url, rps, duration, warmup (excluded from the results), mix (weights of
+// the parse, list and detail scenarios), body-kb (size of the generated emails), cache (passed to
+// /api/parse), max-in-flight (requests over it are not sent) and out (JSON results). A request
+// that is not sent is not left out: it counts as a "dropped" response and enters the percentiles
+// as still waiting when the test ends.
+public class LoadGenerator {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final HttpClient client;
+  private final URI baseUrl;
+  private final int bodyKb;
+  private final boolean cache;
+  private final int maxInFlight;
+  private final Map<String, Scenario> scenarios = new LinkedHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder dropped = new LongAdder();
+  private final AtomicLong sequence = new AtomicLong();
+
+  // Ids of stored emails for the detail scenario, filled from parse and list responses
+  private final AtomicLongArray knownIds = new AtomicLongArray(1024);
+  private final AtomicLong knownIdCount = new AtomicLong();
+
+  private volatile long measureFrom;
+
+  LoadGenerator(URI baseUrl, Map<String, Integer> mix, int bodyKb, boolean cache, int maxInFlight) {
+    this.client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    this.baseUrl = baseUrl;
+    this.bodyKb = bodyKb;
+    this.cache = cache;
+    this.maxInFlight = maxInFlight;
+    mix.forEach(
+        (name, weight) -> {
+          if (weight > 0) {
+            scenarios.put(name, new Scenario(name, weight));
+          }
+        });
+    if (scenarios.isEmpty()) {
+      throw new IllegalArgumentException("No scenario with a positive weight in the mix");
+    }
+    // Detail lists until an email id is known, those requests are reported as list
+    if (scenarios.containsKey("detail")) {
+      scenarios.putIfAbsent("list", new Scenario("list", 0));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      String option = arg.startsWith("--") ? arg.substring(2) : arg;
+      int separator = option.indexOf('=');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Expected --name=value, got " + arg);
+      }
+      options.put(option.substring(0, separator), option.substring(separator + 1));
+    }
+
+    Map<String, Integer> mix = new LinkedHashMap<>();
+    for (String entry : options.getOrDefault("mix", "parse:1,list:5,detail:4").split(",")) {
+      String[] nameAndWeight = entry.trim().split(":");
+      if (!List.of("parse", "list", "detail").contains(nameAndWeight[0])) {
+        throw new IllegalArgumentException("Unknown scenario " + nameAndWeight[0]);
+      }
+      mix.put(nameAndWeight[0], Integer.parseInt(nameAndWeight[1]));
+    }
+
+    LoadGenerator generator =
+        new LoadGenerator(
+            URI.create(options.getOrDefault("url", "http://localhost:8080")),
+            mix,
+            Integer.parseInt(options.getOrDefault("body-kb", "4")),
+            Boolean.parseBoolean(options.getOrDefault("cache", "false")),
+            Integer.parseInt(options.getOrDefault("max-in-flight", "2000")));
+    ObjectNode results =
+        generator.run(
+            Double.parseDouble(options.getOrDefault("rps", "20")),
+            duration(options.getOrDefault("duration", "60s")),
+            duration(options.getOrDefault("warmup", "10s")));
+
+    System.out.println(generator.report(results));
+    String out = options.get("out");
+    if (out != null) {
+      Path file = Path.of(out);
+      if (file.getParent() != null) {
+        Files.createDirectories(file.getParent());
+      }
+      MAPPER.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), results);
+      System.out.println("Results written to " + file.toAbsolutePath());
+    }
+  }
+
+  // 500ms, 30s, 5m or a plain number of seconds
+  private static Duration duration(String value) {
+    String v = value.trim().toLowerCase();
+    if (v.endsWith("ms")) {
+      return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+    } else if (v.endsWith("s")) {
+      return Duration.ofSeconds(Long.parseLong(v.substring(0, v.length() - 1)));
+    } else if (v.endsWith("m")) {
+      return Duration.ofMinutes(Long.parseLong(v.substring(0, v.length() - 1)));
+    }
+    return Duration.ofSeconds(Long.parseLong(v));
+  }
+
+  ObjectNode run(double rps, Duration duration, Duration warmup) throws InterruptedException {
+    long period = (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+    long start = System.nanoTime();
+    measureFrom = start + warmup.toNanos();
+    long end = measureFrom + duration.toNanos();
+    int totalWeight = scenarios.values().stream().mapToInt(Scenario::weight).sum();
+    System.out.printf(
+        "%.1f requests/s against %s for %ds after %ds warmup, mix %s%n",
+        rps,
+        baseUrl,
+        duration.toSeconds(),
+        warmup.toSeconds(),
+        scenarios.values().stream().filter(s -> s.weight() > 0).map(Scenario::name).toList());
+
+    long nextProgress = start + TimeUnit.SECONDS.toNanos(10);
+    for (long i = 0; ; i++) {
+      long due = start + i * period;
+      if (due >= end) {
+        break;
+      }
+      long wait;
+      while ((wait = due - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      if (due >= nextProgress) {
+        System.out.printf(
+            "%3ds: %d in flight, %d dropped%n",
+            TimeUnit.NANOSECONDS.toSeconds(due - start), inFlight.get(), dropped.sum());
+        nextProgress += TimeUnit.SECONDS.toNanos(10);
+      }
+      start(pick(totalWeight), due);
+    }
+
+    // Give stragglers the server's own async timeout before reporting
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(100);
+    }
+    return results(TimeUnit.NANOSECONDS.toSeconds(end - measureFrom), System.nanoTime());
+  }
+
+  private Scenario pick(int totalWeight) {
+    int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+    for (Scenario scenario : scenarios.values()) {
+      ticket -= scenario.weight();
+      if (ticket < 0) {
+        return scenario;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  // Only called from the run loop
+  private void start(Scenario scenario, long due) {
+    long id = 0;
+    if ("detail".equals(scenario.name()) && (id = knownId()) == 0) {
+      scenario = scenarios.get("list");
+    }
+    if (inFlight.get() >= maxInFlight) {
+      dropped.increment();
+      if (due >= measureFrom) {
+        scenario.droppedDue().add(due);
+      }
+      return;
+    }
+    Scenario started = scenario;
+    HttpRequest request = request(scenario.name(), id);
+    inFlight.incrementAndGet();
+    client
+        .sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        .whenComplete(
+            (response, error) -> {
+              inFlight.decrementAndGet();
+              long latency = System.nanoTime() - due;
+              if (due < measureFrom) {
+                return;
+              }
+              started.latency().recordValue(TimeUnit.NANOSECONDS.toMicros(latency));
+              String outcome = error != null ? "error" : String.valueOf(response.statusCode());
+              started.outcomes().computeIfAbsent(outcome, key -> new LongAdder()).increment();
+              if (response != null && response.statusCode() / 100 == 2) {
+                rememberIds(response.body());
+              }
+            });
+  }
+
+  // id is the email to get for detail
+  private HttpRequest request(String scenario, long id) {
+    if ("detail".equals(scenario)) {
+      return HttpRequest.newBuilder(baseUrl.resolve("/api/email/" + id))
+          .timeout(Duration.ofMinutes(2))
+          .GET()
+          .build();
+    } else if ("parse".equals(scenario)) {
+      ObjectNode body = MAPPER.createObjectNode();
+      body.put("body", email(sequence.incrementAndGet()));
+      body.put("fileType", "eml");
+      return HttpRequest.newBuilder(baseUrl.resolve("/api/parse?cache=" + cache))
+          .timeout(Duration.ofMinutes(2))
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+          .build();
+    }
+    return HttpRequest.newBuilder(baseUrl.resolve("/api/emails?limit=50"))
+        .timeout(Duration.ofMinutes(2))
+        .GET()
+        .build();
+  }
+
+  // A unique Outlook-like HTML email of about body-kb kilobytes, so cached results never match
+  private String email(long n) {
+    StringBuilder html = new StringBuilder(bodyKb * 1024 + 1024);
+    html.append("<html><body><p>Please book the allocations below.</p><table>")
+        .append("<tr><th>ISIN</th><th>Side</th><th>Quantity</th><th>Price</th></tr>");
+    for (int row = 0; html.length() < bodyKb * 1024; row++) {
+      html.append("<tr><td>US03783310")
+          .append(String.format("%02d", row % 100))
+          .append("</td><td>")
+          .append(row % 2 == 0 ? "Buy" : "Sell")
+          .append("</td><td>")
+          .append((row + 1) * 1000)
+          .append("</td><td>")
+          .append(100 + row * 0.25)
+          .append("</td></tr>");
+    }
+    html.append("</table><p>Regards,<br>Desk</p></body></html>");
+    return "From: trader"
+        + (n % 20)
+        + "@bank.com\r\n"
+        + "To: allocations@bank.com\r\n"
+        + "Subject: Allocations load test #"
+        + n
+        + "\r\n"
+        + "MIME-Version: 1.0\r\n"
+        + "Content-Type: text/html; charset=UTF-8\r\n"
+        + "\r\n"
+        + html
+        + "\r\n";
+  }
+
+  private void rememberIds(String body) {
+    try {
+      JsonNode json = MAPPER.readTree(body);
+      if (json.has("items")) {
+        for (JsonNode item : json.get("items")) {
+          rememberId(item.path("id").asLong());
+        }
+      } else {
+        rememberId(json.path("id").asLong());
+      }
+    } catch (IOException e) {
+      // Not JSON, nothing to remember
+    }
+  }
+
+  private void rememberId(long id) {
+    if (id > 0) {
+      knownIds.set((int) (knownIdCount.getAndIncrement() % knownIds.length()), id);
+    }
+  }
+
+  private long knownId() {
+    long count = Math.min(knownIdCount.get(), knownIds.length());
+    return count == 0 ? 0 : knownIds.get(ThreadLocalRandom.current().nextInt((int) count));
+  }
+
+  // Requests that were never sent are still waiting at testEnd, leaving them out would hide exactly
+  // the moments the server could not keep up (coordinated omission)
+  private ObjectNode results(long seconds, long testEnd) {
+    ObjectNode results = MAPPER.createObjectNode();
+    results.put("seconds", seconds);
+    results.put("dropped", scenarios.values().stream().mapToLong(s -> s.droppedDue().size()).sum());
+    Histogram all = new Histogram(3);
+    ArrayNode byScenario = results.putArray("scenarios");
+    for (Scenario scenario : scenarios.values()) {
+      Histogram latency = scenario.latency().copy();
+      for (long due : scenario.droppedDue()) {
+        latency.recordValue(
+            Math.min(
+                TimeUnit.NANOSECONDS.toMicros(testEnd - due), latency.getHighestTrackableValue()));
+      }
+      all.add(latency);
+      ObjectNode node = summary(latency, seconds);
+      node.put("name", scenario.name());
+      ObjectNode outcomes = node.putObject("responses");
+      scenario.outcomes().forEach((outcome, count) -> outcomes.put(outcome, count.sum()));
+      if (!scenario.droppedDue().isEmpty()) {
+        outcomes.put("dropped", scenario.droppedDue().size());
+      }
+      long errors =
+          scenario.outcomes().entrySet().stream()
+              .filter(entry -> !entry.getKey().startsWith("2"))
+              .mapToLong(entry -> entry.getValue().sum())
+              .sum();
+      errors += scenario.droppedDue().size();
+      node.put("errors", errors);
+      byScenario.add(node);
+    }
+    results.set("total", summary(all, seconds));
+    return results;
+  }
+
+  private static ObjectNode summary(Histogram latency, long seconds) {
+    ObjectNode node = MAPPER.createObjectNode();
+    node.put("requests", latency.getTotalCount());
+    node.put("throughput", seconds > 0 ? (double) latency.getTotalCount() / seconds : 0);
+    node.put("p50Ms", latency.getValueAtPercentile(50) / 1000.0);
+    node.put("p99Ms", latency.getValueAtPercentile(99) / 1000.0);
+    node.put("p999Ms", latency.getValueAtPercentile(99.9) / 1000.0);
+    node.put("maxMs", latency.getMaxValue() / 1000.0);
+    return node;
+  }
+
+  String report(ObjectNode results) {
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            "%n%-8s %9s %8s %10s %10s %10s %10s %10s%n",
+            "scenario", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+    List<JsonNode> rows = new ArrayList<>();
+    results.get("scenarios").forEach(rows::add);
+    rows.add(((ObjectNode) results.get("total").deepCopy()).put("name", "total"));
+    for (JsonNode row : rows) {
+      report.append(
+          String.format(
+              "%-8s %9d %8s %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+              row.get("name").asText(),
+              row.get("requests").asLong(),
+              row.has("errors") ? row.get("errors").asText() : "",
+              row.get("throughput").asDouble(),
+              row.get("p50Ms").asDouble(),
+              row.get("p99Ms").asDouble(),
+              row.get("p999Ms").asDouble(),
+              row.get("maxMs").asDouble()));
+    }
+    for (JsonNode row : results.get("scenarios")) {
+      List<String> responses = new ArrayList<>();
+      row.get("responses")
+          .fields()
+          .forEachRemaining(entry -> responses.add(entry.getKey() + "=" + entry.getValue()));
+      report.append(String.format("%-8s responses %s%n", row.get("name").asText(), responses));
+    }
+    report.append(
+        String.format(
+            "dropped (over max-in-flight, counted as errors): %d%n",
+            results.get("dropped").asLong()));
+    return report.toString();
+  }
+
+  // droppedDue holds when each request that was not sent was due, measured ones only
+  private record Scenario(
+      String name,
+      int weight,
+      Histogram latency,
+      Map<String, LongAdder> outcomes,
+      List<Long> droppedDue) {
+
+    Scenario(String name, int weight) {
+      // Microseconds, up to an hour at 3 significant digits
+      this(
+          name,
+          weight,
+          new ConcurrentHistogram(TimeUnit.HOURS.toMicros(1), 3),
+          new ConcurrentHashMap<>(),
+          new ArrayList<>());
+    }
+  }
+}
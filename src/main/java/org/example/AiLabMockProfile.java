@@ -0,0 +1,80 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+// How the built-in AI Lab mock behaves, so capacity tests can run on one box without the real
+// service. Latency is drawn per call from the configured distribution:
+// - fixed: always latency.mean
+// - normal: latency.mean +/- latency.stddev, never below zero
+// - long-tail: log-normal with median latency.mean and shape latency.sigma (1.0 puts p99 at
+//   about 10x the median)
+// Every draw is capped at latency.max. A share error-rate of the calls fails with error-status,
+// responses carry between quotes.min and quotes.max quotes.
+@Component
+public class AiLabMockProfile {
+
+  enum Latency {
+    FIXED,
+    NORMAL,
+    LONG_TAIL
+  }
+
+  private final Latency latency;
+  private final long meanNanos;
+  private final long stddevNanos;
+  private final double sigma;
+  private final long maxNanos;
+  private final double errorRate;
+  private final HttpStatus errorStatus;
+  private final int minQuotes;
+  private final int maxQuotes;
+
+  public AiLabMockProfile(
+      @Value("${ai.lab.mock.latency.profile:fixed}") String latency,
+      @Value("${ai.lab.mock.latency.mean:1s}") Duration mean,
+      @Value("${ai.lab.mock.latency.stddev:200ms}") Duration stddev,
+      @Value("${ai.lab.mock.latency.sigma:1.0}") double sigma,
+      @Value("${ai.lab.mock.latency.max:60s}") Duration max,
+      @Value("${ai.lab.mock.error-rate:0}") double errorRate,
+      @Value("${ai.lab.mock.error-status:503}") int errorStatus,
+      @Value("${ai.lab.mock.quotes.min:1}") int minQuotes,
+      @Value("${ai.lab.mock.quotes.max:3}") int maxQuotes) {
+    this.latency = Latency.valueOf(latency.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    this.meanNanos = mean.toNanos();
+    this.stddevNanos = stddev.toNanos();
+    this.sigma = sigma;
+    this.maxNanos = max.toNanos();
+    this.errorRate = errorRate;
+    this.errorStatus = HttpStatus.valueOf(errorStatus);
+    this.minQuotes = minQuotes;
+    this.maxQuotes = Math.max(minQuotes, maxQuotes);
+  }
+
+  Duration nextLatency() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    double nanos =
+        switch (latency) {
+          case FIXED -> meanNanos;
+          case NORMAL -> meanNanos + stddevNanos * random.nextGaussian();
+          case LONG_TAIL -> meanNanos * Math.exp(sigma * random.nextGaussian());
+        };
+    return Duration.ofNanos((long) Math.min(Math.max(nanos, 0), maxNanos));
+  }
+
+  boolean nextFails() {
+    return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+  }
+
+  HttpStatus errorStatus() {
+    return errorStatus;
+  }
+
+  int nextQuoteCount() {
+    return ThreadLocalRandom.current().nextInt(minQuotes, maxQuotes + 1);
+  }
+}
@@ -0,0 +1,365 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+
+// Bulk ingestion of mailbox exports: EML/MSG files, zip archives and mbox files are parsed in
+// parallel across cores and sent to the AI Lab with a bounded number of in-flight requests
+@Service
+public class BulkParseService {
+
+  private static final Logger logger = LoggerFactory.getLogger(BulkParseService.class);
+
+  private final EmailParseService emailParseService;
+  private final int parallelism;
+  private final int aiConcurrency;
+  private final long maxItemSize;
+  private final Duration retention;
+  private final Map<String, BulkJob> jobs = new ConcurrentHashMap<>();
+
+  public BulkParseService(
+      EmailParseService emailParseService,
+      @Value("${parse.bulk.parallelism:0}") int parallelism,
+      @Value("${parse.bulk.ai-concurrency:16}") int aiConcurrency,
+      @Value("${parse.bulk.max-item-size:50MB}") DataSize maxItemSize,
+      @Value("${parse.jobs.retention:1h}") Duration retention) {
+    this.emailParseService = emailParseService;
+    this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    this.aiConcurrency = aiConcurrency;
+    this.maxItemSize = maxItemSize.toBytes();
+    this.retention = retention;
+  }
+
+  // Copy the uploads out of the request, they are processed after the response has been sent
+  BulkParseJob submit(List<MultipartFile> files) throws IOException {
+    Path directory = Files.createTempDirectory("bulk-parse-");
+    List<StagedFile> stagedFiles = new ArrayList<>();
+    for (MultipartFile file : files) {
+      String name = file.getOriginalFilename() != null ? file.getOriginalFilename() : "unnamed";
+      Path path = directory.resolve(stagedFiles.size() + ".upload");
+      file.transferTo(path);
+      stagedFiles.add(new StagedFile(name, path));
+    }
+
+    BulkJob job = new BulkJob(UUID.randomUUID().toString(), LocalDateTime.now());
+    jobs.put(job.id, job);
+
+    Flux.fromIterable(stagedFiles)
+        .concatMap(
+            file ->
+                readItems(file)
+                    .onErrorResume(
+                        e ->
+                            Mono.just(
+                                new BulkItem(
+                                    file.name(),
+                                    "",
+                                    null,
+                                    "Could not read file: " + e.getMessage()))))
+        .subscribeOn(Schedulers.boundedElastic())
+        .doOnNext(item -> job.received.incrementAndGet())
+        // MIME parsing is CPU bound, spread it over the parallel scheduler. A prefetch of one keeps
+        // the contents in flight to about one per rail instead of the default 256.
+        .parallel(parallelism, 1)
+        .runOn(Schedulers.parallel(), 1)
+        .map(this::prepare)
+        .sequential(1)
+        // Only a bounded number of AI requests are in flight at any time
+        .flatMap(this::extract, aiConcurrency)
+        .doOnNext(job::record)
+        .doFinally(
+            signal -> {
+              job.finish();
+              deleteQuietly(directory, stagedFiles);
+            })
+        .subscribe(
+            item -> {},
+            e -> {
+              logger.error("Bulk parse job " + job.id + " failed", e);
+              job.error = e.getMessage();
+            });
+
+    return job.snapshot();
+  }
+
+  Optional<BulkParseJob> find(String id) {
+    return Optional.ofNullable(jobs.get(id)).map(BulkJob::snapshot);
+  }
+
+  // Drop finished jobs once their result has been kept for the retention period
+  @Scheduled(fixedDelayString = "${parse.jobs.cleanup-interval:60000}")
+  void evictFinishedJobs() {
+    LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+    jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(cutoff));
+  }
+
+  private PreparedItem prepare(BulkItem item) {
+    if (item.error() != null) {
+      return new PreparedItem(item.name(), null, item.error());
+    }
+    try {
+      return new PreparedItem(
+          item.name(), emailParseService.parseMessage(item.content(), item.fileType()), null);
+    } catch (Exception e) {
+      return new PreparedItem(item.name(), null, "Parse failed: " + e.getMessage());
+    }
+  }
+
+  private Mono<BulkParseItem> extract(PreparedItem item) {
+    if (item.error() != null) {
+      return Mono.just(new BulkParseItem(item.name(), null, item.error()));
+    }
+    return emailParseService
+        .extractTrades(item.message())
+        .map(email -> new BulkParseItem(item.name(), email.id(), null))
+        .onErrorResume(e -> Mono.just(new BulkParseItem(item.name(), null, e.getMessage())));
+  }
+
+  // Expand an uploaded file into the emails it contains, reading archives lazily
+  private Flux<BulkItem> readItems(StagedFile file) {
+    String fileType = fileType(file.name());
+    switch (fileType) {
+      case "eml", "msg":
+        return Mono.fromCallable(
+                () ->
+                    Files.size(file.path()) > maxItemSize
+                        ? tooLarge(file.name(), fileType)
+                        : new BulkItem(
+                            file.name(), fileType, Files.readAllBytes(file.path()), null))
+            .flux();
+      case "zip":
+        return Flux.using(
+            () -> new ZipInputStream(Files.newInputStream(file.path())),
+            zip -> Flux.<BulkItem>generate(sink -> nextZipItem(file.name(), zip, sink)),
+            this::closeQuietly);
+      case "mbox":
+        return readMbox(file);
+      default:
+        return Flux.just(
+            new BulkItem(file.name(), fileType, null, "Unsupported file type: " + file.name()));
+    }
+  }
+
+  private void nextZipItem(String archiveName, ZipInputStream zip, SynchronousSink<BulkItem> sink) {
+    try {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        String name = entry.getName();
+        // Skip directories and macOS resource forks
+        if (entry.isDirectory() || name.startsWith("__MACOSX/") || name.contains("/._")) {
+          continue;
+        }
+        String entryType = fileType(name);
+        if ("eml".equals(entryType) || "msg".equals(entryType)) {
+          // The declared size can be missing or forged, the read itself is bounded too. The rest
+          // of an oversized entry is skipped by the next getNextEntry.
+          BulkItem item;
+          try {
+            item =
+                entry.getSize() > maxItemSize
+                    ? tooLarge(archiveName + "!" + name, entryType)
+                    : new BulkItem(
+                        archiveName + "!" + name,
+                        entryType,
+                        new SizeLimitedInputStream(zip, maxItemSize).readAllBytes(),
+                        null);
+          } catch (MaxUploadSizeExceededException e) {
+            item = tooLarge(archiveName + "!" + name, entryType);
+          }
+          sink.next(item);
+        } else {
+          sink.next(
+              new BulkItem(
+                  archiveName + "!" + name, entryType, null, "Unsupported file type: " + name));
+        }
+        return;
+      }
+      sink.complete();
+    } catch (IOException e) {
+      sink.error(e);
+    }
+  }
+
+  // mbox: messages start at "From " lines, quoted ">From " body lines are unescaped
+  private Flux<BulkItem> readMbox(StagedFile file) {
+    AtomicInteger index = new AtomicInteger();
+    return Flux.using(
+        () -> Files.newBufferedReader(file.path(), StandardCharsets.ISO_8859_1),
+        reader ->
+            Flux.<BulkItem>generate(
+                sink -> {
+                  try {
+                    MboxMessage message = nextMboxMessage(reader);
+                    if (message == null) {
+                      sink.complete();
+                    } else {
+                      String name = file.name() + "#" + index.incrementAndGet();
+                      sink.next(
+                          message.content() != null
+                              ? new BulkItem(name, "eml", message.content(), null)
+                              : tooLarge(name, "eml"));
+                    }
+                  } catch (IOException e) {
+                    sink.error(e);
+                  }
+                }),
+        this::closeQuietly);
+  }
+
+  // null at the end of the file, a message without content when it is over the item size
+  private MboxMessage nextMboxMessage(BufferedReader reader) throws IOException {
+    ByteArrayOutputStream message = new ByteArrayOutputStream();
+    boolean started = false;
+    boolean tooLarge = false;
+    String line;
+    while (true) {
+      reader.mark(8192);
+      line = reader.readLine();
+      if (line == null) {
+        break;
+      }
+      if (line.startsWith("From ")) {
+        if (started) {
+          // Start of the next message, leave it for the next call
+          reader.reset();
+          break;
+        }
+        started = true;
+        continue;
+      }
+      if (!started) {
+        continue;
+      }
+      if (tooLarge) {
+        // Skip to the next message without keeping the lines
+        continue;
+      }
+      if (line.startsWith(">") && line.replaceFirst("^>+", "").startsWith("From ")) {
+        line = line.substring(1);
+      }
+      message.write(line.getBytes(StandardCharsets.ISO_8859_1));
+      message.write('\r');
+      message.write('\n');
+      if (message.size() > maxItemSize) {
+        tooLarge = true;
+        message = new ByteArrayOutputStream();
+      }
+    }
+    if (!started) {
+      return null;
+    }
+    return new MboxMessage(tooLarge ? null : message.toByteArray());
+  }
+
+  private BulkItem tooLarge(String name, String fileType) {
+    return new BulkItem(
+        name, fileType, null, "Email is larger than the limit of " + maxItemSize + " bytes");
+  }
+
+  private static String fileType(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 ? name.substring(dot + 1).toLowerCase() : "";
+  }
+
+  private void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception e) {
+      logger.warn("Could not close bulk upload", e);
+    }
+  }
+
+  private void deleteQuietly(Path directory, List<StagedFile> stagedFiles) {
+    try {
+      for (StagedFile file : stagedFiles) {
+        Files.deleteIfExists(file.path());
+      }
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      logger.warn("Could not delete bulk upload " + directory, e);
+    }
+  }
+
+  private record StagedFile(String name, Path path) {}
+
+  private record BulkItem(String name, String fileType, byte[] content, String error) {}
+
+  private record MboxMessage(byte[] content) {}
+
+  private record PreparedItem(String name, ParsedMessage message, String error) {}
+
+  // Mutable progress of a running bulk job, exposed through BulkParseJob snapshots
+  private static class BulkJob {
+    private final String id;
+    private final LocalDateTime submittedAt;
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final ConcurrentLinkedQueue<BulkParseItem> items = new ConcurrentLinkedQueue<>();
+    private volatile String error;
+    private volatile LocalDateTime finishedAt;
+
+    BulkJob(String id, LocalDateTime submittedAt) {
+      this.id = id;
+      this.submittedAt = submittedAt;
+    }
+
+    void record(BulkParseItem item) {
+      items.add(item);
+      if (item.error() == null) {
+        succeeded.incrementAndGet();
+      } else {
+        failed.incrementAndGet();
+      }
+    }
+
+    void finish() {
+      finishedAt = LocalDateTime.now();
+    }
+
+    BulkParseJob snapshot() {
+      ParseJobState state =
+          finishedAt == null
+              ? ParseJobState.PARSING
+              : error == null ? ParseJobState.COMPLETED : ParseJobState.FAILED;
+      return new BulkParseJob(
+          id,
+          state,
+          received.get(),
+          succeeded.get(),
+          failed.get(),
+          List.copyOf(items),
+          error,
+          submittedAt,
+          finishedAt);
+    }
+  }
+}
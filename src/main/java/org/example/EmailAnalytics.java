@@ -0,0 +1,86 @@
+package org.example;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.stereotype.Component;
+
+// Dashboard counters kept up to date from repository changes: each change subtracts the previous
+// version of the email and adds the new one, so reading them never scans the store
+@Component
+public class EmailAnalytics implements EmailChangeListener {
+
+  private final LongAdder totalEmails = new LongAdder();
+  private final LongAdder totalExtracted = new LongAdder();
+  private final LongAdder totalSent = new LongAdder();
+  private final LongAdder totalUntouched = new LongAdder();
+  private final LongAdder totalTrades = new LongAdder();
+  private final LongAdder successfulTrades = new LongAdder();
+  private final LongAdder failedTrades = new LongAdder();
+  private final Map<Integer, LongAdder> errorCodes = new ConcurrentHashMap<>();
+
+  @Override
+  public void emailChanged(Email previous, Email current) {
+    if (previous != null) {
+      count(previous, -1);
+    }
+    if (current != null) {
+      count(current, 1);
+    }
+  }
+
+  Analytics snapshot() {
+    Map<Integer, Long> codes = new TreeMap<>();
+    errorCodes.forEach(
+        (code, count) -> {
+          long value = count.sum();
+          if (value > 0) {
+            codes.put(code, value);
+          }
+        });
+    return new Analytics(
+        totalEmails.sum(),
+        totalExtracted.sum(),
+        totalSent.sum(),
+        totalUntouched.sum(),
+        totalTrades.sum(),
+        successfulTrades.sum(),
+        failedTrades.sum(),
+        codes);
+  }
+
+  private void count(Email email, int delta) {
+    totalEmails.add(delta);
+    if (Boolean.TRUE.equals(email.sent())) {
+      totalSent.add(delta);
+    } else if (email.modifiedAt() == null || email.modifiedAt().equals(email.createdAt())) {
+      // Neither sent nor edited since it was parsed
+      totalUntouched.add(delta);
+    }
+    if (email.trades() == null) {
+      return;
+    }
+
+    boolean extracted = false;
+    for (Trade trade : email.trades()) {
+      totalTrades.add(delta);
+      if (trade.isSuccess()) {
+        successfulTrades.add(delta);
+        extracted = true;
+      } else {
+        failedTrades.add(delta);
+      }
+      if (trade.errorCodes() != null) {
+        for (Integer code : trade.errorCodes()) {
+          if (code != null) {
+            errorCodes.computeIfAbsent(code, key -> new LongAdder()).add(delta);
+          }
+        }
+      }
+    }
+    if (extracted) {
+      totalExtracted.add(delta);
+    }
+  }
+}
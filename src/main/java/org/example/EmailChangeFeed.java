@@ -0,0 +1,139 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+// Numbered stream of email changes for live views (GET /api/emails/changes). Each change is
+// serialized once, whatever the number of subscribers, and the last change-feed.retention
+// changes are kept so a client that reconnects with its last event id only receives what it
+// missed. Event ids are "<epoch>:<sequence>", the epoch changes on restart. A client that is too
+// far behind, or comes from another epoch, gets a reset event and should reload its view.
+@Component
+public class EmailChangeFeed implements EmailChangeListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(EmailChangeFeed.class);
+
+  private final ObjectMapper objectMapper;
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  private final Change[] retained;
+  private final int subscriberBuffer;
+  private final Duration heartbeat;
+  private final List<FluxSink<Change>> subscribers = new CopyOnWriteArrayList<>();
+
+  // Sequence of the latest change, guarded by this
+  private long head;
+
+  public EmailChangeFeed(
+      ObjectMapper objectMapper,
+      @Value("${change-feed.retention:10000}") int retention,
+      @Value("${change-feed.subscriber-buffer:1000}") int subscriberBuffer,
+      @Value("${change-feed.heartbeat:15s}") Duration heartbeat) {
+    this.objectMapper = objectMapper;
+    this.retained = new Change[retention];
+    this.subscriberBuffer = subscriberBuffer;
+    this.heartbeat = heartbeat;
+  }
+
+  // Clients load what is stored through the API, only changes after that are news
+  @Override
+  public void emailRecovered(Email email) {}
+
+  @Override
+  public void emailChanged(Email previous, Email current) {
+    EmailChangeType type =
+        previous == null
+            ? EmailChangeType.CREATED
+            : current == null ? EmailChangeType.DELETED : EmailChangeType.UPDATED;
+    Email email = current != null ? current : previous;
+    String json;
+    try {
+      json =
+          objectMapper.writeValueAsString(
+              new EmailChange(type, email.id(), current != null ? EmailSummary.of(current) : null));
+    } catch (JsonProcessingException e) {
+      logger.error("Could not serialize change of email {}", email.id(), e);
+      return;
+    }
+
+    // Numbering, retention and fan-out happen together, so a subscriber that is replaying
+    // retained changes cannot miss or duplicate one published meanwhile
+    synchronized (this) {
+      Change change = new Change(++head, "change", json);
+      retained[(int) (change.sequence() % retained.length)] = change;
+      for (FluxSink<Change> subscriber : subscribers) {
+        subscriber.next(change);
+      }
+    }
+  }
+
+  // Changes after lastEventId (only future changes if null), plus a comment every heartbeat
+  Flux<ServerSentEvent<String>> subscribe(String lastEventId) {
+    Flux<ServerSentEvent<String>> changes =
+        Flux.<Change>create(
+                sink -> {
+                  synchronized (this) {
+                    replay(lastEventId, sink);
+                    subscribers.add(sink);
+                  }
+                  sink.onDispose(() -> subscribers.remove(sink));
+                })
+            // A subscriber that cannot keep up is disconnected and resumes from its last id
+            .onBackpressureBuffer(
+                subscriberBuffer,
+                change -> logger.info("Change feed subscriber fell behind, disconnecting"),
+                BufferOverflowStrategy.ERROR)
+            .map(
+                change ->
+                    ServerSentEvent.builder(change.json())
+                        .id(epoch + ":" + change.sequence())
+                        .event(change.event())
+                        .build());
+    Flux<ServerSentEvent<String>> heartbeats =
+        Flux.interval(heartbeat).map(tick -> ServerSentEvent.<String>builder().comment("").build());
+    return Flux.merge(changes, heartbeats);
+  }
+
+  // Called holding the lock. A new subscriber gets a ready event, which carries the current
+  // position as its id for EventSource to resume from.
+  private void replay(String lastEventId, FluxSink<Change> sink) {
+    if (lastEventId == null || lastEventId.isBlank()) {
+      sink.next(new Change(head, "ready", "{}"));
+      return;
+    }
+    long oldest = Math.max(1, head - retained.length + 1);
+    long sequence = sequenceOf(lastEventId);
+    if (sequence < oldest - 1 || sequence > head) {
+      sink.next(new Change(head, "reset", "{}"));
+      return;
+    }
+    for (long next = sequence + 1; next <= head; next++) {
+      sink.next(retained[(int) (next % retained.length)]);
+    }
+  }
+
+  // -1 (too old, forces a reset) for ids of another epoch or that cannot be read
+  private long sequenceOf(String eventId) {
+    int separator = eventId.indexOf(':');
+    if (separator < 0 || !epoch.equals(eventId.substring(0, separator))) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(eventId.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private record Change(long sequence, String event, String json) {}
+}
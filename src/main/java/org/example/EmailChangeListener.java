@@ -0,0 +1,16 @@
+package org.example;
+
+// Notified of every change to the repository once it is applied, outside the repository's locks.
+// Changes arrive one at a time and in the order they were made, so those to the same email arrive
+// in order. Implementations must be fast, the writer that delivers them waits for them.
+public interface EmailChangeListener {
+
+  // previous is null for a new email, current is null for a deleted one
+  void emailChanged(Email previous, Email current);
+
+  // A stored email loaded at startup, before any change. Listeners that keep derived state take it
+  // as new, those that report changes have nothing to report.
+  default void emailRecovered(Email email) {
+    emailChanged(null, email);
+  }
+}
@@ -0,0 +1,261 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.lang.reflect.RecordComponent;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.stereotype.Service;
+
+// Operator edits of stored emails. Each edit can be made conditional on the version the client
+// last read (If-Match), so two people editing the same email cannot overwrite each other. Patches
+// follow JSON Merge Patch (RFC 7396): fields in the patch replace the stored ones, null clears
+// them, and everything not named in the patch, including the other trades, is kept as it is.
+@Service
+public class EmailEditService {
+
+  private static final TypeReference<List<Trade>> TRADES = new TypeReference<>() {};
+  private static final Set<String> EMAIL_FIELDS =
+      Set.of("subject", "fromEmail", "toEmails", "cc", "body", "trades", "sent");
+  private static final Set<String> TRADE_FIELDS =
+      Arrays.stream(Trade.class.getRecordComponents())
+          .map(RecordComponent::getName)
+          .filter(name -> !Set.of("id", "emailId", "createdAt").contains(name))
+          .collect(Collectors.toUnmodifiableSet());
+
+  private final EmailRepository emailRepository;
+  private final ObjectMapper objectMapper;
+
+  public EmailEditService(EmailRepository emailRepository, ObjectMapper objectMapper) {
+    this.emailRepository = emailRepository;
+    this.objectMapper = objectMapper;
+  }
+
+  // PUT semantics: non-null fields of the update replace the stored ones, trades as a whole.
+  // expectedVersion is null for an unconditional update.
+  Optional<Email> replace(Long id, Long expectedVersion, Email update) {
+    return emailRepository.update(
+        id,
+        existing -> {
+          checkVersion(existing, expectedVersion);
+          return new Email(
+              existing.id(),
+              update.subject() != null ? update.subject() : existing.subject(),
+              update.fromEmail() != null ? update.fromEmail() : existing.fromEmail(),
+              update.toEmails() != null ? update.toEmails() : existing.toEmails(),
+              update.cc() != null ? update.cc() : existing.cc(),
+              update.body() != null ? update.body() : existing.body(),
+              // A body written by an operator is complete
+              update.body() == null && existing.bodyTruncated(),
+              update.trades() != null ? owned(existing.id(), update.trades()) : existing.trades(),
+              update.sent() != null ? update.sent() : existing.sent(),
+              existing.createdAt(),
+              LocalDateTime.now(),
+              existing.version());
+        });
+  }
+
+  // Merge patch of the email's own fields. A trades array replaces all trades, single trades are
+  // patched with patchTrade.
+  Optional<Email> patch(Long id, Long expectedVersion, JsonNode patch) {
+    ObjectNode fields = object(patch);
+    for (Iterator<String> names = fields.fieldNames(); names.hasNext(); ) {
+      String name = names.next();
+      if (!EMAIL_FIELDS.contains(name)) {
+        throw new IllegalArgumentException(name + " is unknown or cannot be changed");
+      }
+    }
+    return emailRepository.update(
+        id,
+        existing -> {
+          checkVersion(existing, expectedVersion);
+          return fields.isEmpty() ? existing : patched(existing, fields);
+        });
+  }
+
+  // Merge patch of one trade, the email's other trades and fields are left alone
+  Optional<Email> patchTrade(Long id, Long tradeId, Long expectedVersion, JsonNode patch) {
+    ObjectNode fields = object(patch);
+    for (Iterator<String> names = fields.fieldNames(); names.hasNext(); ) {
+      String name = names.next();
+      if (!TRADE_FIELDS.contains(name)) {
+        throw new IllegalArgumentException(name + " is unknown or cannot be changed");
+      }
+    }
+    return emailRepository.update(
+        id,
+        existing -> {
+          checkVersion(existing, expectedVersion);
+          List<Trade> trades = existing.trades() != null ? existing.trades() : List.of();
+          int index = 0;
+          while (index < trades.size() && !tradeId.equals(trades.get(index).id())) {
+            index++;
+          }
+          if (index == trades.size()) {
+            throw new NoSuchElementException("Email " + id + " has no trade " + tradeId);
+          }
+          if (fields.isEmpty()) {
+            return existing;
+          }
+
+          ObjectNode trade = objectMapper.valueToTree(trades.get(index));
+          merge(trade, fields);
+          List<Trade> patchedTrades = new ArrayList<>(trades);
+          try {
+            patchedTrades.set(index, objectMapper.treeToValue(trade, Trade.class));
+          } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage(), e);
+          }
+          return new Email(
+              existing.id(),
+              existing.subject(),
+              existing.fromEmail(),
+              existing.toEmails(),
+              existing.cc(),
+              existing.body(),
+              existing.bodyTruncated(),
+              patchedTrades,
+              existing.sent(),
+              existing.createdAt(),
+              LocalDateTime.now(),
+              existing.version());
+        });
+  }
+
+  private Email patched(Email existing, ObjectNode fields) {
+    String subject = existing.subject();
+    String fromEmail = existing.fromEmail();
+    String[] toEmails = existing.toEmails();
+    String[] cc = existing.cc();
+    String body = existing.body();
+    boolean bodyTruncated = existing.bodyTruncated();
+    List<Trade> trades = existing.trades();
+    Boolean sent = existing.sent();
+    for (Iterator<Map.Entry<String, JsonNode>> it = fields.fields(); it.hasNext(); ) {
+      Map.Entry<String, JsonNode> field = it.next();
+      JsonNode value = field.getValue();
+      switch (field.getKey()) {
+        case "subject" -> subject = convert(value, String.class);
+        case "fromEmail" -> fromEmail = convert(value, String.class);
+        case "toEmails" -> toEmails = convert(value, String[].class);
+        case "cc" -> cc = convert(value, String[].class);
+        case "body" -> {
+          body = convert(value, String.class);
+          bodyTruncated = false;
+        }
+        case "trades" -> trades =
+            value.isNull() ? List.of() : owned(existing.id(), convert(value, TRADES));
+        case "sent" -> sent = convert(value, Boolean.class);
+        default -> throw new IllegalArgumentException(field.getKey() + " cannot be changed");
+      }
+    }
+    return new Email(
+        existing.id(),
+        subject,
+        fromEmail,
+        toEmails,
+        cc,
+        body,
+        bodyTruncated,
+        trades,
+        sent,
+        existing.createdAt(),
+        LocalDateTime.now(),
+        existing.version());
+  }
+
+  // Trades sent by the client belong to this email. New ones get an id, and so do trades copied
+  // from another email, whose ids are still that email's.
+  private List<Trade> owned(Long emailId, List<Trade> trades) {
+    return trades.stream()
+        .map(
+            trade ->
+                trade.id() != null && emailId.equals(trade.emailId())
+                    ? trade
+                    : new Trade(
+                        emailRepository.nextTradeId(),
+                        emailId,
+                        trade.isSuccess(),
+                        trade.errorMessage(),
+                        trade.errorCodes(),
+                        trade.clientWay(),
+                        trade.currency(),
+                        trade.isinCode(),
+                        trade.securityCode(),
+                        trade.notional(),
+                        trade.schemaIdentifier(),
+                        trade.schemaType(),
+                        trade.schemaVersion(),
+                        trade.solveHeader(),
+                        trade.clientId(),
+                        trade.brokerId(),
+                        trade.quantity(),
+                        trade.price(),
+                        trade.tradeDate(),
+                        trade.settlementDate(),
+                        trade.createdAt() != null ? trade.createdAt() : LocalDateTime.now()))
+        .toList();
+  }
+
+  private <T> T convert(JsonNode value, Class<T> type) {
+    return value.isNull() ? null : objectMapper.convertValue(value, type);
+  }
+
+  private <T> T convert(JsonNode value, TypeReference<T> type) {
+    return objectMapper.convertValue(value, type);
+  }
+
+  private static void checkVersion(Email existing, Long expectedVersion) {
+    if (expectedVersion != null && existing.version() != expectedVersion) {
+      throw new VersionConflictException(existing);
+    }
+  }
+
+  private static ObjectNode object(JsonNode patch) {
+    if (patch == null || !patch.isObject()) {
+      throw new IllegalArgumentException("a merge patch must be a JSON object");
+    }
+    return (ObjectNode) patch;
+  }
+
+  // RFC 7396: null removes a member, objects merge recursively, anything else replaces
+  private static void merge(ObjectNode target, ObjectNode patch) {
+    for (Iterator<Map.Entry<String, JsonNode>> it = patch.fields(); it.hasNext(); ) {
+      Map.Entry<String, JsonNode> field = it.next();
+      JsonNode value = field.getValue();
+      if (value.isNull()) {
+        target.remove(field.getKey());
+      } else if (value.isObject() && target.get(field.getKey()) instanceof ObjectNode nested) {
+        merge(nested, (ObjectNode) value);
+      } else {
+        target.set(field.getKey(), value);
+      }
+    }
+  }
+
+  // The email changed since the client read it, carries the current version
+  static class VersionConflictException extends RuntimeException {
+
+    private final Email current;
+
+    VersionConflictException(Email current) {
+      super("Email " + current.id() + " is at version " + current.version());
+      this.current = current;
+    }
+
+    Email current() {
+      return current;
+    }
+  }
+}
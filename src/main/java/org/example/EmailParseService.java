@@ -0,0 +1,358 @@
+package org.example;
+
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Function;
+import org.apache.poi.hsmf.MAPIMessage;
+import org.example.EmailParserApplication.Check;
+import org.example.EmailParserApplication.Contract;
+import org.example.EmailParserApplication.Error;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.example.EmailParserApplication.Quote;
+import org.example.MimeBodyExtractor.BodyText;
+import org.example.MsgFieldReader.MsgFields;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+// Parse pipeline: MIME/MSG parsing, AI Lab extraction and conversion of quotes to trades
+@Service
+public class EmailParseService {
+
+  private static final Logger logger = LoggerFactory.getLogger(EmailParseService.class);
+
+  // Every email is sent to the AI Lab as addressed to the allocations mailbox
+  private static final String AI_LAB_RECIPIENT =
+      "ALLOCATIONS.EMEA.NLP.UAT <allocations.emea.nlp.uat@bnpparibas.com>";
+
+  private final MailDropBatcher mailDropBatcher;
+  private final EmailRepository emailRepository;
+  private final ExtractionCache extractionCache;
+  private final MimeBodyExtractor mimeBodyExtractor;
+  private final HtmlNormalizer htmlNormalizer;
+  private final PayloadLogger payloadLogger;
+  private final ParseMetrics parseMetrics;
+
+  // Off falls back to converting MSG files into a MimeMessage through MAPIMessage
+  @Value("${parse.msg.fast-path:true}")
+  private boolean msgFastPath;
+
+  public EmailParseService(
+      MailDropBatcher mailDropBatcher,
+      EmailRepository emailRepository,
+      ExtractionCache extractionCache,
+      MimeBodyExtractor mimeBodyExtractor,
+      HtmlNormalizer htmlNormalizer,
+      PayloadLogger payloadLogger,
+      ParseMetrics parseMetrics) {
+    this.mailDropBatcher = mailDropBatcher;
+    this.emailRepository = emailRepository;
+    this.extractionCache = extractionCache;
+    this.mimeBodyExtractor = mimeBodyExtractor;
+    this.htmlNormalizer = htmlNormalizer;
+    this.payloadLogger = payloadLogger;
+    this.parseMetrics = parseMetrics;
+  }
+
+  // MIME parsing runs on the subscribing thread, the AI round trip is awaited without blocking it
+  Mono<Email> parse(EmailRequest request, boolean useCache) {
+    return Mono.fromCallable(() -> parseMessage(request))
+        .flatMap(message -> extractTrades(message, useCache));
+  }
+
+  // Same pipeline for a raw EML/MSG stream, the stream is read on the subscribing thread
+  Mono<Email> parse(InputStream content, String fileType, boolean useCache) {
+    return Mono.fromCallable(() -> parseMessage(content, fileType))
+        .flatMap(message -> extractTrades(message, useCache));
+  }
+
+  Mono<Email> extractTrades(ParsedMessage message) {
+    return extractTrades(message, true);
+  }
+
+  // Send an already parsed email to the AI Lab, unless the same email was extracted before, and
+  // store the result
+  Mono<Email> extractTrades(ParsedMessage message, boolean useCache) {
+    MailDropRequest mailDropRequest = message.request();
+    // Only actual AI Lab calls are timed and counted, not answers from the cache
+    Function<MailDropRequest, Mono<MailDropResponse>> aiLab =
+        request -> parseMetrics.timeAi(mailDropBatcher.send(request));
+    Mono<MailDropResponse> response =
+        useCache ? extractionCache.get(mailDropRequest, aiLab) : aiLab.apply(mailDropRequest);
+    return parseMetrics.inFlight(
+        response
+            .defaultIfEmpty(new MailDropResponse(null))
+            .map(aiResponse -> storeEmail(message, aiResponse)));
+  }
+
+  // Helper method to turn the uploaded file into an AI request
+  ParsedMessage parseMessage(EmailRequest request) throws Exception {
+    // Parse based on file type
+    String fileType = request.fileType() != null ? request.fileType().toLowerCase() : "eml";
+
+    // MSG files are uploaded as base64, EML files as plain text
+    byte[] content =
+        parseMetrics.time(
+            "decode",
+            () ->
+                "msg".equals(fileType)
+                    ? Base64.getDecoder().decode(request.body())
+                    : request.body().getBytes());
+    return parseMessage(content, fileType);
+  }
+
+  // Helper method to turn raw EML/MSG file content into an AI request
+  ParsedMessage parseMessage(byte[] content, String fileType) throws Exception {
+    parseMetrics.inputSize(content.length);
+    return parseMessage(new ByteArrayInputStream(content), fileType);
+  }
+
+  // Parse straight from the uploaded stream, without an intermediate copy of the file. The parsers
+  // still hold one copy each: MimeMessage reads the whole message into a growing byte array, and
+  // POI's POIFSFileSystem (both MSG paths) reads the whole OLE2 container into memory. Measured
+  // with UploadPeakHeap, a streamed EML needs about three times its size in heap and a streamed MSG
+  // under twice, against five to seven times for the same files sent as JSON.
+  ParsedMessage parseMessage(InputStream content, String fileType) throws Exception {
+    // Create mail session
+    Session session = Session.getDefaultInstance(new Properties());
+    MimeMessage mimeMessage;
+
+    if ("msg".equals(fileType) && msgFastPath) {
+      // Read the needed MAPI properties directly, no MimeMessage in between
+      MsgFields msg = parseMetrics.time("msg", () -> MsgFieldReader.read(content));
+      return buildMailDropRequest(
+          msg.from() != null && !msg.from().isEmpty() ? msg.from() : "Unknown",
+          new String[] {AI_LAB_RECIPIENT},
+          new String[0],
+          msg.subject() != null && !msg.subject().isEmpty() ? msg.subject() : "No Subject",
+          mimeBodyExtractor.limit(msg.body() != null ? msg.body() : ""));
+    } else if ("msg".equals(fileType)) {
+      // Parse MSG file
+      mimeMessage = parseMetrics.time("msg", () -> parseMsgFile(content, session));
+    } else {
+      // Default EML parsing
+      mimeMessage = parseMetrics.time("mime", () -> new MimeMessage(session, content));
+    }
+
+    // Extract email metadata
+    String fromEmail = "Unknown";
+    if (mimeMessage.getFrom() != null && mimeMessage.getFrom().length > 0) {
+      InternetAddress address = (InternetAddress) mimeMessage.getFrom()[0];
+      fromEmail = address.getAddress();
+    }
+
+    String subject = mimeMessage.getSubject();
+    if (subject == null) {
+      subject = "No Subject";
+    }
+
+    // Extract recipients
+    String[] toAddresses =
+        mimeMessage.getRecipients(Message.RecipientType.TO) != null
+            ? Arrays.stream(mimeMessage.getRecipients(Message.RecipientType.TO))
+                .map(address -> ((InternetAddress) address).getAddress())
+                .toArray(String[]::new)
+            : new String[0];
+    toAddresses = new String[] {AI_LAB_RECIPIENT};
+
+    String[] ccAddresses =
+        mimeMessage.getRecipients(Message.RecipientType.CC) != null
+            ? Arrays.stream(mimeMessage.getRecipients(Message.RecipientType.CC))
+                .map(address -> ((InternetAddress) address).getAddress())
+                .toArray(String[]::new)
+            : new String[0];
+
+    // Get content
+    BodyText body = parseMetrics.time("body", () -> mimeBodyExtractor.extract(mimeMessage));
+
+    return buildMailDropRequest(fromEmail, toAddresses, ccAddresses, subject, body);
+  }
+
+  private ParsedMessage buildMailDropRequest(
+      String fromEmail, String[] toAddresses, String[] ccAddresses, String subject, BodyText body)
+      throws Exception {
+    MailDropRequest mailDropRequest =
+        new MailDropRequest(
+            "aggregated_email_model",
+            UUID.randomUUID().toString(),
+            fromEmail,
+            toAddresses,
+            ccAddresses,
+            subject,
+            parseMetrics.time("normalize", () -> htmlNormalizer.normalize(body.text())),
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm")));
+
+    logger.debug(
+        "AI Lab request {} from {}: {} body characters",
+        mailDropRequest.uniqueId(),
+        fromEmail,
+        mailDropRequest.htmlPart().length());
+    payloadLogger.log("AI Lab request", mailDropRequest);
+    return new ParsedMessage(mailDropRequest, body.text(), body.truncated());
+  }
+
+  // Helper method to build and store the parsed email once the AI response arrives
+  private Email storeEmail(ParsedMessage message, MailDropResponse aiResponse) {
+    MailDropRequest mailDropRequest = message.request();
+    long emailId = emailRepository.nextEmailId();
+
+    // Convert quotes to trades
+    List<Trade> trades = new ArrayList<>();
+    parseMetrics.time(
+        "convert",
+        () -> {
+          if (aiResponse.quotes() != null) {
+            for (Quote quote : aiResponse.quotes()) {
+              trades.add(convertQuoteToTrade(quote, emailId));
+            }
+          }
+        });
+
+    // Create Email object, modifiedAt equal to createdAt marks it as not edited yet
+    LocalDateTime now = LocalDateTime.now();
+    Email email =
+        new Email(
+            emailId,
+            mailDropRequest.subject(),
+            mailDropRequest.from(),
+            mailDropRequest.to(),
+            mailDropRequest.cc(),
+            // As extracted, normalization only shrinks what the AI Lab is sent
+            message.body(),
+            message.bodyTruncated(),
+            trades,
+            false,
+            now,
+            now,
+            1);
+
+    parseMetrics.time("store", () -> emailRepository.add(email));
+    return email;
+  }
+
+  Trade convertQuoteToTrade(Quote quote, Long emailId) {
+    // Check if the contract is present
+    Contract contract = quote.contract();
+
+    // Default values for dates
+    String defaultTradeDate = LocalDate.now().format(DateTimeFormatter.ISO_DATE) + "T00:00";
+    String defaultSettlementDate =
+        LocalDate.now().plusDays(2).format(DateTimeFormatter.ISO_DATE) + "T00:00";
+
+    return new Trade(
+        emailRepository.nextTradeId(),
+        emailId,
+        quote.check().isSuccess(),
+        !quote.check().isSuccess() ? quote.check().messageToDisplay() : null,
+        errorCodes(quote.check()),
+        contract != null ? contract.clientWay() : null,
+        contract != null ? contract.currency() : null,
+        contract != null ? contract.isinCode() : null,
+        contract != null ? contract.securityCode() : null,
+        contract != null ? contract.notional() : null,
+        contract != null ? contract.schemaIdentifier() : null,
+        contract != null ? contract.schemaType() : null,
+        contract != null ? contract.schemaVersion() : null,
+        contract != null ? contract.solveHeader() : null,
+        "CLIENT_" + emailId,
+        "BROKER_" + emailId,
+        0.0, // default quantity
+        contract != null ? (contract.price() != null ? contract.price() : 0.0) : 0.0,
+        // Use null for dates if they're null in the contract
+        contract != null ? (contract.tradeDate() != null ? contract.tradeDate() : null) : null,
+        contract != null
+            ? (contract.settlementDate() != null ? contract.settlementDate() : null)
+            : null,
+        LocalDateTime.now());
+  }
+
+  private static List<Integer> errorCodes(Check check) {
+    if (check.errors() == null) {
+      return null;
+    }
+    return check.errors().stream().map(Error::code).filter(Objects::nonNull).toList();
+  }
+
+  // Update the parseMsgFile method to handle missing recipients
+  static MimeMessage parseMsgFile(InputStream content, Session session) throws Exception {
+    // Parse MSG file using POI
+    MAPIMessage msg = new MAPIMessage(content);
+
+    // Create a new MimeMessage
+    MimeMessage mimeMessage = new MimeMessage(session);
+
+    // Set From - handle null case
+    try {
+      String displayFrom = msg.getDisplayFrom();
+      if (displayFrom != null && !displayFrom.isEmpty()) {
+        mimeMessage.setFrom(new InternetAddress(displayFrom));
+      }
+    } catch (Exception e) {
+      logger.warn("Could not parse 'From' address from MSG file", e);
+    }
+
+    // Set Subject - handle null case
+    try {
+      String subject = msg.getSubject();
+      if (subject != null && !subject.isEmpty()) {
+        mimeMessage.setSubject(subject);
+      }
+    } catch (Exception e) {
+      logger.warn("Could not parse subject from MSG file", e);
+    }
+
+    // Set To recipients - handle missing recipients section
+    try {
+      String[] recipients = msg.getRecipientEmailAddressList();
+      if (recipients != null && recipients.length > 0) {
+        for (String recipient : recipients) {
+          if (recipient != null && !recipient.isEmpty()) {
+            mimeMessage.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+          }
+        }
+      }
+    } catch (Exception e) {
+      logger.warn("Could not parse recipients from MSG file", e);
+      // Set default recipient if needed for your use case
+      // mimeMessage.addRecipient(Message.RecipientType.TO, new
+      // InternetAddress("default@example.com"));
+    }
+
+    // Set body - handle both HTML and plain text
+    try {
+      String htmlBody = msg.getHtmlBody();
+      String textBody = msg.getTextBody();
+
+      if (htmlBody != null && !htmlBody.isEmpty()) {
+        mimeMessage.setContent(htmlBody, "text/html; charset=UTF-8");
+      } else if (textBody != null && !textBody.isEmpty()) {
+        mimeMessage.setText(textBody);
+      } else {
+        // Set empty body if both are null
+        mimeMessage.setText("");
+      }
+    } catch (Exception e) {
+      logger.warn("Could not parse body from MSG file", e);
+      mimeMessage.setText(""); // Set empty body as fallback
+    }
+
+    return mimeMessage;
+  }
+}
@@ -1,259 +1,474 @@
 package org.example;
 
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import jakarta.mail.BodyPart;
-import jakarta.mail.Message;
-import jakarta.mail.Multipart;
-import jakarta.mail.Session;
-import jakarta.mail.internet.InternetAddress;
-import jakarta.mail.internet.MimeMessage;
-import jakarta.servlet.http.HttpServletRequest;
-import java.io.ByteArrayInputStream;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.Base64;
-import java.util.Properties;
-import java.util.stream.Collectors;
-import org.apache.poi.hsmf.MAPIMessage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.filter.CommonsRequestLoggingFilter;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.reactive.function.client.WebClientException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @SpringBootApplication
+@EnableScheduling
 @RestController
 @CrossOrigin(origins = "http://localhost:3000") // Vite's default port
 public class EmailParserApplication {
 
   private static final Logger logger = LoggerFactory.getLogger(EmailParserApplication.class);
-  private static final ObjectMapper objectMapper =
-      new ObjectMapper()
-          .enable(SerializationFeature.INDENT_OUTPUT)
-          .disable(JsonGenerator.Feature.ESCAPE_NON_ASCII);
-
-  @Value("${ai.lab.maildrop.url}")
-  private String mailDropUrl;
+  private static final int MAX_PAGE_SIZE = 500;
+  private static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+
+  private final EmailRepository emailRepository;
+  private final EmailParseService emailParseService;
+  private final ParseJobService parseJobService;
+  private final BulkParseService bulkParseService;
+  private final EmailAnalytics emailAnalytics;
+  private final AiLabMockProfile aiLabMockProfile;
+  private final EmailChangeFeed emailChangeFeed;
+  private final EmailSearchService emailSearchService;
+  private final TradeColumnStore tradeColumnStore;
+  private final TradeExportService tradeExportService;
+  private final EmailEditService emailEditService;
+
+  @Value("${parse.upload.max-size:50MB}")
+  private DataSize maxUploadSize;
+
+  public EmailParserApplication(
+      EmailRepository emailRepository,
+      EmailParseService emailParseService,
+      ParseJobService parseJobService,
+      BulkParseService bulkParseService,
+      EmailAnalytics emailAnalytics,
+      AiLabMockProfile aiLabMockProfile,
+      EmailChangeFeed emailChangeFeed,
+      EmailSearchService emailSearchService,
+      TradeColumnStore tradeColumnStore,
+      TradeExportService tradeExportService,
+      EmailEditService emailEditService) {
+    this.emailRepository = emailRepository;
+    this.emailParseService = emailParseService;
+    this.parseJobService = parseJobService;
+    this.bulkParseService = bulkParseService;
+    this.emailAnalytics = emailAnalytics;
+    this.aiLabMockProfile = aiLabMockProfile;
+    this.emailChangeFeed = emailChangeFeed;
+    this.emailSearchService = emailSearchService;
+    this.tradeColumnStore = tradeColumnStore;
+    this.tradeExportService = tradeExportService;
+    this.emailEditService = emailEditService;
+  }
 
   public static void main(String[] args) {
     SpringApplication.run(EmailParserApplication.class, args);
   }
 
-  // Mock data storage
-  private final List<Email> emails = new ArrayList<>();
-  private long nextId = 1;
-  private final Random random = new Random();
-
   // Analytics endpoint
   @GetMapping("/api/analytics")
   public ResponseEntity<Analytics> getAnalytics() {
-    Analytics analytics =
-        new Analytics(
-            1000, // totalEmails
-            850, // totalExtracted
-            720, // totalSent
-            680 // totalUntouched
-            );
-    return ResponseEntity.ok(analytics);
+    // Counters are maintained as emails change, nothing is recounted here
+    return ResponseEntity.ok(emailAnalytics.snapshot());
   }
 
   // Get emails with pagination and filtering
   @GetMapping("/api/emails")
-  public ResponseEntity<List<Email>> getEmails() {
+  public ResponseEntity<EmailResponse> getEmails(
+      @RequestParam(value = "limit", defaultValue = "50") int limit,
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @RequestParam(value = "sent", required = false) Boolean sent,
+      @RequestParam(value = "sender", required = false) String sender,
+      @RequestParam(value = "from", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime from,
+      @RequestParam(value = "to", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime to,
+      @RequestParam(value = "status", required = false) String status) {
     // Initialize with mock data if empty
-    if (emails.isEmpty()) {
-      initializeMockData();
+    if (emailRepository.isEmpty()) {
+      emailRepository.initializeMockData();
+    }
+
+    EmailFilter filter;
+    EmailCursor after;
+    try {
+      filter =
+          new EmailFilter(
+              sent,
+              sender,
+              from,
+              to,
+              status != null ? EmailStatus.valueOf(status.toUpperCase()) : null);
+      after = cursor != null ? EmailCursor.decode(cursor) : null;
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+          .header("X-Error-Message", "Invalid filter or cursor: " + e.getMessage())
+          .build();
     }
 
-    // Return all emails sorted by creation date (newest first)
-    List<Email> sortedEmails =
-        emails.stream()
-            .sorted((e1, e2) -> e2.createdAt().compareTo(e1.createdAt()))
-            .collect(Collectors.toList());
+    // Newest first, one extra row tells whether there is a next page
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    List<Email> page = emailRepository.find(filter, after, pageSize + 1);
+    String nextCursor = null;
+    if (page.size() > pageSize) {
+      page = page.subList(0, pageSize);
+      Email last = page.get(pageSize - 1);
+      nextCursor = new EmailCursor(last.createdAt(), last.id()).encode();
+    }
 
-    return ResponseEntity.ok(sortedEmails);
+    List<EmailSummary> items = page.stream().map(EmailSummary::of).toList();
+    // Counting filtered emails scans them, so that is done once, for the first page
+    Integer total = after == null || filter.isEmpty() ? emailRepository.count(filter) : null;
+    return ResponseEntity.ok(new EmailResponse(items, total, nextCursor));
   }
 
-  // Parse new email
-  @PostMapping("/api/parse")
-  public ResponseEntity<Email> parseEmail(@RequestBody EmailRequest request) {
+  // Search emails by trade fields, sender, status and dates, ranked by q over subject and body
+  @GetMapping("/api/search")
+  public ResponseEntity<SearchResponse> searchEmails(
+      @RequestParam(value = "q", required = false) String text,
+      @RequestParam(value = "isinCode", required = false) String isinCode,
+      @RequestParam(value = "securityCode", required = false) String securityCode,
+      @RequestParam(value = "currency", required = false) String currency,
+      @RequestParam(value = "clientWay", required = false) String clientWay,
+      @RequestParam(value = "clientId", required = false) String clientId,
+      @RequestParam(value = "brokerId", required = false) String brokerId,
+      @RequestParam(value = "sender", required = false) String sender,
+      @RequestParam(value = "status", required = false) String status,
+      @RequestParam(value = "sent", required = false) Boolean sent,
+      @RequestParam(value = "tradeDateFrom", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateFrom,
+      @RequestParam(value = "tradeDateTo", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateTo,
+      @RequestParam(value = "from", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime from,
+      @RequestParam(value = "to", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime to,
+      @RequestParam(value = "offset", defaultValue = "0") int offset,
+      @RequestParam(value = "limit", defaultValue = "50") int limit) {
     try {
-      // Create mail session
-      Session session = Session.getDefaultInstance(new Properties());
-      MimeMessage mimeMessage;
+      EmailSearchQuery query =
+          new EmailSearchQuery(
+              text,
+              isinCode,
+              securityCode,
+              currency,
+              clientWay,
+              clientId,
+              brokerId,
+              sender,
+              status != null ? EmailStatus.valueOf(status.toUpperCase()) : null,
+              sent,
+              tradeDateFrom,
+              tradeDateTo,
+              from,
+              to);
+      return ResponseEntity.ok(
+          emailSearchService.search(
+              query, Math.max(0, offset), Math.max(1, Math.min(limit, MAX_PAGE_SIZE))));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+          .header("X-Error-Message", "Invalid search: " + e.getMessage())
+          .build();
+    }
+  }
 
-      // Parse based on file type
-      String fileType = request.fileType() != null ? request.fileType().toLowerCase() : "eml";
+  // Notional of successful trades per currency, per client and currency, or per trade day and
+  // currency. Scans the trade columns, not the emails.
+  @GetMapping("/api/trades/notional")
+  public ResponseEntity<List<NotionalTotal>> getTradeNotional(
+      @RequestParam(value = "by", defaultValue = "currency") String by,
+      @RequestParam(value = "tradeDateFrom", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateFrom,
+      @RequestParam(value = "tradeDateTo", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateTo) {
+    try {
+      TradeGrouping grouping = TradeGrouping.valueOf(by.toUpperCase());
+      return ResponseEntity.ok(tradeColumnStore.notional(grouping, tradeDateFrom, tradeDateTo));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+          .header("X-Error-Message", "Invalid aggregation: " + e.getMessage())
+          .build();
+    }
+  }
 
-      if ("msg".equals(fileType)) {
-        // Parse MSG file
-        mimeMessage = parseMsgFile(request.body(), session);
-      } else {
-        // Default EML parsing
-        mimeMessage = new MimeMessage(session, new ByteArrayInputStream(request.body().getBytes()));
-      }
+  // Extraction success rate per schema type and version
+  @GetMapping("/api/trades/success-rate")
+  public ResponseEntity<List<SchemaSuccessRate>> getTradeSuccessRates(
+      @RequestParam(value = "tradeDateFrom", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateFrom,
+      @RequestParam(value = "tradeDateTo", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateTo) {
+    try {
+      return ResponseEntity.ok(tradeColumnStore.successRates(tradeDateFrom, tradeDateTo));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+          .header("X-Error-Message", "Invalid aggregation: " + e.getMessage())
+          .build();
+    }
+  }
 
-      // Extract email metadata
-      String fromEmail = "Unknown";
-      if (mimeMessage.getFrom() != null && mimeMessage.getFrom().length > 0) {
-        InternetAddress address = (InternetAddress) mimeMessage.getFrom()[0];
-        fromEmail = address.getAddress();
-      }
+  // Trades of the matching emails as CSV or newline-delimited JSON, gzipped when the client accepts
+  // it. Rows are written while the store is paged through, so the export size does not affect
+  // memory. Written on the request thread, an async response would be cut by the request timeout.
+  @GetMapping("/api/trades/export")
+  public void exportTrades(
+      @RequestParam(value = "format", defaultValue = "csv") String format,
+      @RequestParam(value = "sent", required = false) Boolean sent,
+      @RequestParam(value = "sender", required = false) String sender,
+      @RequestParam(value = "status", required = false) String status,
+      @RequestParam(value = "from", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime from,
+      @RequestParam(value = "to", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime to,
+      @RequestParam(value = "tradeDateFrom", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateFrom,
+      @RequestParam(value = "tradeDateTo", required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+          LocalDate tradeDateTo,
+      @RequestParam(value = "currency", required = false) String currency,
+      @RequestParam(value = "clientId", required = false) String clientId,
+      @RequestParam(value = "success", required = false) Boolean success,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      HttpServletResponse response)
+      throws IOException {
+    TradeExportFormat exportFormat;
+    TradeExportQuery query;
+    try {
+      exportFormat = TradeExportFormat.valueOf(format.toUpperCase());
+      query =
+          new TradeExportQuery(
+              new EmailFilter(
+                  sent,
+                  sender,
+                  from,
+                  to,
+                  status != null ? EmailStatus.valueOf(status.toUpperCase()) : null),
+              tradeDateFrom,
+              tradeDateTo,
+              currency,
+              clientId,
+              success);
+    } catch (IllegalArgumentException e) {
+      response.setHeader("X-Error-Message", "Invalid export: " + e.getMessage());
+      response.setStatus(HttpStatus.BAD_REQUEST.value());
+      return;
+    }
 
-      String subject = mimeMessage.getSubject();
-      if (subject == null) {
-        subject = "No Subject";
-      }
+    // No content length, so the container sends the body chunked as it is written
+    boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    response.setContentType(exportFormat.contentType + ";charset=UTF-8");
+    response.setHeader(
+        HttpHeaders.CONTENT_DISPOSITION,
+        ContentDisposition.attachment()
+            .filename("trades." + exportFormat.name().toLowerCase())
+            .build()
+            .toString());
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    long started = System.nanoTime();
+    long trades;
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), 64 * 1024);
+      trades = tradeExportService.export(query, exportFormat, out);
+      out.finish();
+    } else {
+      trades = tradeExportService.export(query, exportFormat, response.getOutputStream());
+    }
+    logger.info(
+        "Exported {} trades as {} in {} ms",
+        trades,
+        exportFormat,
+        (System.nanoTime() - started) / 1_000_000);
+  }
 
-      // Extract recipients
-      String[] toAddresses =
-          mimeMessage.getRecipients(Message.RecipientType.TO) != null
-              ? Arrays.stream(mimeMessage.getRecipients(Message.RecipientType.TO))
-                  .map(address -> ((InternetAddress) address).getAddress())
-                  .toArray(String[]::new)
-              : new String[0];
-      toAddresses =
-          new String[] {"ALLOCATIONS.EMEA.NLP.UAT <allocations.emea.nlp.uat@bnpparibas.com>"};
-
-      String[] ccAddresses =
-          mimeMessage.getRecipients(Message.RecipientType.CC) != null
-              ? Arrays.stream(mimeMessage.getRecipients(Message.RecipientType.CC))
-                  .map(address -> ((InternetAddress) address).getAddress())
-                  .toArray(String[]::new)
-              : new String[0];
-
-      // Get content
-      String body = extractEmailBody(mimeMessage);
-
-      // Create and send AI request
-      MailDropRequest mailDropRequest =
-          new MailDropRequest(
-              "aggregated_email_model",
-              UUID.randomUUID().toString(),
-              fromEmail,
-              toAddresses,
-              ccAddresses,
-              subject,
-              body,
-              LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm")));
-
-      // Log the request before sending
-      logger.info("\nAI Lab request:\n" + objectMapper.writeValueAsString(mailDropRequest));
-
-      // Use WebClient to send request
-      WebClient webClient =
-          WebClient.builder()
-              .codecs(
-                  configurer ->
-                      configurer
-                          .defaultCodecs()
-                          .jackson2JsonEncoder(
-                              new Jackson2JsonEncoder(objectMapper, MediaType.APPLICATION_JSON)))
-              .build();
-
-      // Send request to AI Lab endpoint with error handling
-      MailDropResponse aiResponse;
-      try {
-        aiResponse =
-            webClient
-                .post()
-                .uri(mailDropUrl)
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(mailDropRequest)
-                .retrieve()
-                .onStatus(
-                    status -> status.is4xxClientError() || status.is5xxServerError(),
-                    response ->
-                        response
-                            .bodyToMono(String.class)
-                            .flatMap(
-                                errorBody -> {
-                                  logger.error("AI Lab error response: " + errorBody);
-                                  return Mono.error(
-                                      new RuntimeException(
-                                          "AI server error: "
-                                              + response.statusCode()
-                                              + " - "
-                                              + errorBody));
-                                }))
-                .bodyToMono(MailDropResponse.class)
-                .block();
-
-        // Log the response
-        logger.info("\nAI Lab response:\n" + objectMapper.writeValueAsString(aiResponse));
-
-      } catch (Exception e) {
-        logger.error("AI Lab request failed", e);
-        throw new RuntimeException("AI server error: " + e.getMessage(), e);
-      }
+  // Live feed of created, updated and deleted emails. Resumes after the Last-Event-ID header that
+  // EventSource sends on reconnect, or after since for a client that kept its position.
+  @GetMapping(value = "/api/emails/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<String>> getEmailChanges(
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+      @RequestParam(value = "since", required = false) String since) {
+    return emailChangeFeed.subscribe(lastEventId != null ? lastEventId : since);
+  }
+
+  // Parse new email, cache=false forces a fresh AI extraction for an email seen before
+  @PostMapping(value = "/api/parse", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public Mono<ResponseEntity<Email>> parseEmail(
+      @RequestBody EmailRequest request,
+      @RequestParam(value = "cache", defaultValue = "true") boolean cache) {
+    return toParseResponse(emailParseService.parse(request, cache));
+  }
+
+  // Parse an uploaded EML/MSG file, streamed from the multipart part
+  @PostMapping(value = "/api/parse", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public Mono<ResponseEntity<Email>> parseEmailFile(
+      @RequestParam("file") MultipartFile file,
+      @RequestParam(value = "fileType", required = false) String fileType,
+      @RequestParam(value = "cache", defaultValue = "true") boolean cache) {
+    String type = fileType != null ? fileType : fileTypeOf(file.getOriginalFilename());
+    if (file.getSize() > maxUploadSize.toBytes()) {
+      return toParseResponse(
+          Mono.error(new MaxUploadSizeExceededException(maxUploadSize.toBytes())));
+    }
+    return toParseResponse(
+        Mono.using(
+            file::getInputStream,
+            content -> emailParseService.parse(content, type, cache),
+            this::closeQuietly));
+  }
 
-      // Convert quotes to trades
-      List<Trade> trades = new ArrayList<>();
-      if (aiResponse != null && aiResponse.quotes() != null) {
-        for (Quote quote : aiResponse.quotes()) {
-          trades.add(convertQuoteToTrade(quote, nextId));
-        }
+  // Parse a raw EML/MSG file sent as the request body
+  @PostMapping(value = "/api/parse", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public Mono<ResponseEntity<Email>> parseEmailStream(
+      InputStream body,
+      @RequestParam(value = "fileType", defaultValue = "eml") String fileType,
+      @RequestParam(value = "cache", defaultValue = "true") boolean cache) {
+    return toParseResponse(
+        emailParseService.parse(
+            new SizeLimitedInputStream(body, maxUploadSize.toBytes()),
+            fileType.toLowerCase(),
+            cache));
+  }
+
+  private Mono<ResponseEntity<Email>> toParseResponse(Mono<Email> parsedEmail) {
+    return parsedEmail
+        .map(ResponseEntity::ok)
+        .onErrorResume(
+            e -> {
+              logger.error("Parse email failed", e);
+              HttpStatus status = parseErrorStatus(e);
+              ResponseEntity.BodyBuilder response =
+                  ResponseEntity.status(status).header("X-Error-Message", e.getMessage());
+              if (status == HttpStatus.SERVICE_UNAVAILABLE) {
+                response.header(HttpHeaders.RETRY_AFTER, "5");
+              }
+              return Mono.just(response.build());
+            });
+  }
+
+  // 503 while the AI Lab is shed (open circuit, bulkhead full), 504 when it timed out, 502 when
+  // it failed, 413 for oversized uploads, 400 for anything wrong with the email itself
+  static HttpStatus parseErrorStatus(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof MaxUploadSizeExceededException) {
+        return HttpStatus.PAYLOAD_TOO_LARGE;
+      }
+      if (cause instanceof CallNotPermittedException || cause instanceof BulkheadFullException) {
+        return HttpStatus.SERVICE_UNAVAILABLE;
+      }
+      if (cause instanceof TimeoutException) {
+        return HttpStatus.GATEWAY_TIMEOUT;
       }
+      if (cause instanceof WebClientException) {
+        return HttpStatus.BAD_GATEWAY;
+      }
+    }
+    return HttpStatus.BAD_REQUEST;
+  }
+
+  private static String fileTypeOf(String fileName) {
+    return fileName != null && fileName.toLowerCase().endsWith(".msg") ? "msg" : "eml";
+  }
+
+  private void closeQuietly(InputStream content) {
+    try {
+      content.close();
+    } catch (IOException e) {
+      logger.warn("Could not close upload stream", e);
+    }
+  }
 
-      // Create Email object
-      Email email =
-          new Email(
-              nextId++,
-              subject,
-              fromEmail,
-              toAddresses,
-              ccAddresses,
-              body,
-              trades,
-              false,
-              LocalDateTime.now(),
-              LocalDateTime.now());
-
-      emails.add(email);
-      return ResponseEntity.ok(email);
+  // Queue an email for background parsing, the result is polled via the job status endpoint
+  @PostMapping("/api/parse/jobs")
+  public ResponseEntity<ParseJob> submitParseJob(@RequestBody EmailRequest request) {
+    try {
+      ParseJob job = parseJobService.submit(request);
+      return ResponseEntity.accepted()
+          .location(URI.create("/api/parse/jobs/" + job.id()))
+          .body(job);
+    } catch (RejectedExecutionException e) {
+      logger.warn("Parse job queue is full");
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, "5")
+          .header("X-Error-Message", "Parse queue is full, retry later")
+          .build();
+    }
+  }
 
+  // Get parse job status and, once completed, the parsed email
+  @GetMapping("/api/parse/jobs/{id}")
+  public ResponseEntity<ParseJob> getParseJob(@PathVariable String id) {
+    return parseJobService
+        .find(id)
+        .map(ResponseEntity::ok)
+        .orElseGet(() -> ResponseEntity.notFound().build());
+  }
+
+  // Bulk upload of EML/MSG files, zip archives or mbox exports, processed as a background job
+  @PostMapping(value = "/api/parse/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ResponseEntity<BulkParseJob> submitBulkParse(
+      @RequestParam("files") List<MultipartFile> files) {
+    try {
+      BulkParseJob job = bulkParseService.submit(files);
+      return ResponseEntity.accepted()
+          .location(URI.create("/api/parse/bulk/" + job.id()))
+          .body(job);
     } catch (Exception e) {
-      logger.error("Parse email failed", e);
+      logger.error("Bulk upload failed", e);
       return ResponseEntity.status(HttpStatus.BAD_REQUEST)
           .header("X-Error-Message", e.getMessage())
-          .body(null);
+          .build();
     }
   }
 
-  // Helper method to extract email body
-  private String extractEmailBody(MimeMessage mimeMessage) throws Exception {
-    Object content = mimeMessage.getContent();
-    if (content instanceof String) {
-      return (String) content;
-    } else if (content instanceof Multipart) {
-      Multipart multipart = (Multipart) content;
-      StringBuilder body = new StringBuilder();
-      for (int i = 0; i < multipart.getCount(); i++) {
-        BodyPart bodyPart = multipart.getBodyPart(i);
-        String partContentType = bodyPart.getContentType().toLowerCase();
-        if (partContentType.contains("html")) {
-          return bodyPart.getContent().toString();
-        } else if (partContentType.contains("text/plain")) {
-          body.append(bodyPart.getContent().toString());
-        }
-      }
-      return body.toString();
-    }
-    return content.toString();
+  // Get bulk job progress and per-file results
+  @GetMapping("/api/parse/bulk/{id}")
+  public ResponseEntity<BulkParseJob> getBulkParse(@PathVariable String id) {
+    return bulkParseService
+        .find(id)
+        .map(ResponseEntity::ok)
+        .orElseGet(() -> ResponseEntity.notFound().build());
   }
 
   // Helper method to parse date strings
@@ -265,55 +480,116 @@ public class EmailParserApplication {
     }
   }
 
-  // Update email
+  // Update email, non-null fields replace the stored ones. With If-Match the update only applies
+  // to the version the client read.
   @PutMapping("/api/email/{id}")
-  public ResponseEntity<Email> updateEmail(@PathVariable Long id, @RequestBody Email updatedEmail) {
-    // Initialize with mock data if empty
-    initializeMockData();
-
-    // Find the existing email by ID
-    for (int i = 0; i < emails.size(); i++) {
-      Email existingEmail = emails.get(i);
-      if (existingEmail.id().equals(id)) {
-        // Merge non-null fields from updatedEmail into existingEmail
-        Email mergedEmail =
-            new Email(
-                existingEmail.id(),
-                updatedEmail.subject() != null ? updatedEmail.subject() : existingEmail.subject(),
-                updatedEmail.fromEmail() != null
-                    ? updatedEmail.fromEmail()
-                    : existingEmail.fromEmail(),
-                updatedEmail.toEmails() != null
-                    ? updatedEmail.toEmails()
-                    : existingEmail.toEmails(),
-                updatedEmail.cc() != null ? updatedEmail.cc() : existingEmail.cc(),
-                updatedEmail.body() != null ? updatedEmail.body() : existingEmail.body(),
-                updatedEmail.trades() != null ? updatedEmail.trades() : existingEmail.trades(),
-                updatedEmail.sent() != null ? updatedEmail.sent() : existingEmail.sent(),
-                existingEmail.createdAt(),
-                LocalDateTime.now() // Update modifiedAt timestamp
-                );
-
-        // Update the email in the list
-        emails.set(i, mergedEmail);
-        return ResponseEntity.ok(mergedEmail);
-      }
+  public ResponseEntity<Email> updateEmail(
+      @PathVariable Long id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+      @RequestBody Email updatedEmail) {
+    return edit(
+        id,
+        () -> emailEditService.replace(id, ifMatchVersion(ifMatch), updatedEmail),
+        email -> email);
+  }
+
+  // JSON Merge Patch of an email: only the fields in the patch change
+  @PatchMapping(
+      value = "/api/email/{id}",
+      consumes = {MERGE_PATCH_JSON, MediaType.APPLICATION_JSON_VALUE})
+  public ResponseEntity<Email> patchEmail(
+      @PathVariable Long id,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+      @RequestBody JsonNode patch) {
+    return edit(
+        id, () -> emailEditService.patch(id, ifMatchVersion(ifMatch), patch), email -> email);
+  }
+
+  // JSON Merge Patch of one trade. Answers with the trade and the email's new ETag, not the email.
+  @PatchMapping(
+      value = "/api/email/{id}/trades/{tradeId}",
+      consumes = {MERGE_PATCH_JSON, MediaType.APPLICATION_JSON_VALUE})
+  public ResponseEntity<Trade> patchTrade(
+      @PathVariable Long id,
+      @PathVariable Long tradeId,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+      @RequestBody JsonNode patch) {
+    return edit(
+        id,
+        () -> emailEditService.patchTrade(id, tradeId, ifMatchVersion(ifMatch), patch),
+        email ->
+            email.trades().stream()
+                .filter(trade -> tradeId.equals(trade.id()))
+                .findFirst()
+                .orElseThrow());
+  }
+
+  // Runs an edit and answers with the email's version as ETag: 412 with the current ETag when the
+  // email changed since the If-Match version, 404 when it or the trade does not exist
+  private <T> ResponseEntity<T> edit(
+      Long id, Supplier<Optional<Email>> edit, Function<Email, T> body) {
+    try {
+      return edit.get()
+          .map(
+              email ->
+                  ResponseEntity.ok().eTag(Long.toString(email.version())).body(body.apply(email)))
+          .orElseGet(() -> ResponseEntity.notFound().build());
+    } catch (EmailEditService.VersionConflictException e) {
+      return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+          .eTag(Long.toString(e.current().version()))
+          .header(
+              "X-Error-Message",
+              "Email " + id + " was changed by someone else, reload it before editing")
+          .build();
+    } catch (NoSuchElementException e) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND)
+          .header("X-Error-Message", e.getMessage())
+          .build();
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+          .header("X-Error-Message", "Invalid update: " + e.getMessage())
+          .build();
+    }
+  }
+
+  // The version an If-Match header asks for, null when absent or * (any version). If-Match uses
+  // the strong comparison (RFC 9110 13.1.1), a weak tag matches no version and the edit fails
+  // with 412.
+  private static Long ifMatchVersion(String ifMatch) {
+    if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+      return null;
+    }
+    String tag = ifMatch.trim();
+    if (tag.startsWith("W/")) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(tag.replace("\"", ""));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("malformed If-Match " + ifMatch);
     }
-    return ResponseEntity.notFound().build();
+  }
+
+  // Delete email
+  @DeleteMapping("/api/email/{id}")
+  public ResponseEntity<Void> deleteEmail(@PathVariable Long id) {
+    return emailRepository
+        .delete(id)
+        .map(email -> ResponseEntity.noContent().<Void>build())
+        .orElseGet(() -> ResponseEntity.notFound().build());
   }
 
   // Get single email
   @GetMapping("/api/email/{id}")
   public ResponseEntity<Email> getEmail(@PathVariable Long id) {
     // Initialize with mock data if empty
-    if (emails.isEmpty()) {
-      initializeMockData();
+    if (emailRepository.isEmpty()) {
+      emailRepository.initializeMockData();
     }
 
-    return emails.stream()
-        .filter(e -> e.id().equals(id))
-        .findFirst()
-        .map(ResponseEntity::ok)
+    return emailRepository
+        .findById(id)
+        .map(email -> ResponseEntity.ok().eTag(Long.toString(email.version())).body(email))
         .orElseGet(
             () -> {
               // If email not found, create a mock one
@@ -321,10 +597,11 @@ public class EmailParserApplication {
               List<Trade> mockTrades =
                   Arrays.asList(
                       new Trade(
-                          nextTradeId++,
+                          emailRepository.nextTradeId(),
                           id,
                           true, // isSuccess
                           null, // errorMessage
+                          null, // errorCodes
                           "BUY", // clientWay
                           "USD", // currency
                           "US0378331005", // isinCode
@@ -353,107 +630,18 @@ public class EmailParserApplication {
                       new String[] {"ops@bank.com"},
                       new String[] {"compliance@bank.com"},
                       "Mock email body content",
+                      false,
                       mockTrades,
                       false,
                       now,
-                      now);
+                      now,
+                      1);
 
-              emails.add(mockEmail);
-              return ResponseEntity.ok(mockEmail);
+              emailRepository.addMock(mockEmail);
+              return ResponseEntity.ok().eTag(Long.toString(mockEmail.version())).body(mockEmail);
             });
   }
 
-  // Helper method to generate mock data
-  private void initializeMockData() {
-    if (emails.isEmpty()) {
-      Random random = new Random();
-      String[] subjects = {
-        "Trade Confirmation - AAPL",
-        "FWD: Trade Details - MSFT",
-        "RE: Trading Instructions",
-        "New Trade Alert",
-        "Trade Settlement Notice"
-      };
-      String[] fromEmails = {
-        "trader1@bank.com",
-        "trader2@bank.com",
-        "ops@bank.com",
-        "settlement@bank.com",
-        "trading.desk@bank.com"
-      };
-      String[] isinCodes = {
-        "US0378331005", // AAPL
-        "US5949181045", // MSFT
-        "US02079K1079", // GOOGL
-        "US88160R1014", // TSLA
-        "US0231351067" // AMZN
-      };
-      String[] securityCodes = {
-        "AAPL", // Apple
-        "MSFT", // Microsoft
-        "GOOGL", // Google
-        "TSLA", // Tesla
-        "AMZN" // Amazon
-      };
-      String[] currencies = {"USD", "EUR", "GBP", "JPY", "CHF"};
-      String[] clientWays = {"BUY", "SELL"};
-
-      // Generate 50 mock emails
-      for (int i = 0; i < 50; i++) {
-        LocalDateTime emailDate = LocalDateTime.now().minusDays(random.nextInt(30));
-
-        // Generate 1-3 trades per email
-        List<Trade> trades = new ArrayList<>();
-        int numTrades = random.nextInt(3) + 1;
-
-        for (int j = 0; j < numTrades; j++) {
-          boolean isSuccess = random.nextDouble() > 0.2; // 80% success rate
-
-          // Create trade with all required parameters in the correct order
-          Trade trade =
-              new Trade(
-                  nextTradeId++, // id
-                  (long) i + 1, // emailId
-                  isSuccess, // isSuccess
-                  isSuccess ? null : "Failed to process trade", // errorMessage
-                  clientWays[random.nextInt(clientWays.length)], // clientWay
-                  currencies[random.nextInt(currencies.length)], // currency
-                  isinCodes[random.nextInt(isinCodes.length)], // isinCode
-                  securityCodes[random.nextInt(securityCodes.length)], // securityCode
-                  random.nextDouble() * 100000.0, // notional
-                  "SCHEMA_" + (i + 1), // schemaIdentifier
-                  "EQUITY", // schemaType
-                  "1.0", // schemaVersion
-                  "HEADER_" + (i + 1), // solveHeader
-                  "CLIENT_" + (random.nextInt(5) + 1), // clientId
-                  "BROKER_" + (random.nextInt(5) + 1), // brokerId
-                  100.0 * (random.nextInt(10) + 1), // quantity
-                  50.0 + random.nextDouble() * 950.0, // price
-                  emailDate.format(DateTimeFormatter.ISO_DATE) + "T00:00", // tradeDate
-                  emailDate.plusDays(2).format(DateTimeFormatter.ISO_DATE)
-                      + "T00:00", // settlementDate
-                  emailDate // createdAt
-                  );
-
-          trades.add(trade);
-        }
-
-        emails.add(
-            new Email(
-                (long) i + 1,
-                subjects[random.nextInt(subjects.length)] + " #" + (i + 1),
-                fromEmails[random.nextInt(fromEmails.length)],
-                new String[] {"recipient@bank.com"},
-                new String[] {"compliance@bank.com"},
-                "Mock email body content for email #" + (i + 1),
-                trades,
-                random.nextBoolean(),
-                emailDate,
-                emailDate));
-      }
-    }
-  }
-
   // Add these records at the bottom of the file with other records
   record MailDropRequest(
       String model,
@@ -494,22 +682,38 @@ public class EmailParserApplication {
       String schemaVersion,
       String solveHeader) {}
 
-  // Add a counter for trade IDs
-  private static Long nextTradeId = 1L;
-
   // Add this mock endpoint
   @PostMapping("/ai-lab/maildrop")
-  public ResponseEntity<MailDropResponse> mockAiLabMaildrop(@RequestBody MailDropRequest request) {
-    try {
-      Thread.sleep(1000);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-    }
+  public Mono<ResponseEntity<MailDropResponse>> mockAiLabMaildrop(
+      @RequestBody MailDropRequest request) {
+    // Simulated model latency (see ai.lab.mock.*), without parking a servlet thread
+    return Mono.delay(aiLabMockProfile.nextLatency())
+        .map(
+            tick ->
+                aiLabMockProfile.nextFails()
+                    ? ResponseEntity.status(aiLabMockProfile.errorStatus()).build()
+                    : ResponseEntity.ok(createMockMailDropResponse()));
+  }
+
+  // Batched variant: one response per request, in order. The per-call latency is paid once per
+  // batch plus a small cost per email, a failure fails the whole batch.
+  @PostMapping("/ai-lab/maildrop/batch")
+  public Mono<ResponseEntity<List<MailDropResponse>>> mockAiLabMaildropBatch(
+      @RequestBody List<MailDropRequest> requests) {
+    return Mono.delay(aiLabMockProfile.nextLatency().plusMillis(10L * requests.size()))
+        .map(
+            tick ->
+                aiLabMockProfile.nextFails()
+                    ? ResponseEntity.status(aiLabMockProfile.errorStatus()).build()
+                    : ResponseEntity.ok(
+                        requests.stream().map(request -> createMockMailDropResponse()).toList()));
+  }
 
+  private MailDropResponse createMockMailDropResponse() {
     Random random = new Random();
     List<Quote> quotes = new ArrayList<>();
 
-    int numQuotes = random.nextInt(3) + 1;
+    int numQuotes = aiLabMockProfile.nextQuoteCount();
     for (int i = 0; i < numQuotes; i++) {
       boolean isSuccess = random.nextDouble() > 0.2;
 
@@ -552,167 +756,75 @@ public class EmailParserApplication {
       quotes.add(new Quote(check, contract));
     }
 
-    return ResponseEntity.ok(new MailDropResponse(quotes));
-  }
-
-  private Trade convertQuoteToTrade(Quote quote, Long emailId) {
-    // Check if the contract is present
-    Contract contract = quote.contract();
-
-    // Default values for dates
-    String defaultTradeDate = LocalDate.now().format(DateTimeFormatter.ISO_DATE) + "T00:00";
-    String defaultSettlementDate =
-        LocalDate.now().plusDays(2).format(DateTimeFormatter.ISO_DATE) + "T00:00";
-
-    return new Trade(
-        nextTradeId++,
-        emailId,
-        quote.check().isSuccess(),
-        !quote.check().isSuccess() ? quote.check().messageToDisplay() : null,
-        contract != null ? contract.clientWay() : null,
-        contract != null ? contract.currency() : null,
-        contract != null ? contract.isinCode() : null,
-        contract != null ? contract.securityCode() : null,
-        contract != null ? contract.notional() : null,
-        contract != null ? contract.schemaIdentifier() : null,
-        contract != null ? contract.schemaType() : null,
-        contract != null ? contract.schemaVersion() : null,
-        contract != null ? contract.solveHeader() : null,
-        "CLIENT_" + emailId,
-        "BROKER_" + emailId,
-        0.0, // default quantity
-        contract != null ? (contract.price() != null ? contract.price() : 0.0) : 0.0,
-        // Use null for dates if they're null in the contract
-        contract != null ? (contract.tradeDate() != null ? contract.tradeDate() : null) : null,
-        contract != null
-            ? (contract.settlementDate() != null ? contract.settlementDate() : null)
-            : null,
-        LocalDateTime.now());
-  }
-
-  @Bean
-  public CommonsRequestLoggingFilter requestLoggingFilter() {
-    CommonsRequestLoggingFilter loggingFilter =
-        new CommonsRequestLoggingFilter() {
-          @Override
-          protected void beforeRequest(HttpServletRequest request, String message) {
-            logger.info(message);
-          }
-
-          @Override
-          protected void afterRequest(HttpServletRequest request, String message) {
-            try {
-              String body =
-                  request.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
-              if (!body.isEmpty()) {
-                Object jsonBody = objectMapper.readValue(body, Object.class);
-                String prettyJson = objectMapper.writeValueAsString(jsonBody);
-                logger.info("Request body:\n" + prettyJson);
-              }
-            } catch (Exception e) {
-              logger.warn("Could not log request body", e);
-            }
-          }
-        };
-    loggingFilter.setIncludeQueryString(true);
-    loggingFilter.setIncludePayload(true);
-    loggingFilter.setMaxPayloadLength(10000);
-    return loggingFilter;
-  }
-
-  // Add logging for outgoing requests to AI Lab
-  private WebClient createWebClientWithLogging() {
-    return WebClient.builder()
-        .filter(
-            (request, next) -> {
-              // Log the outgoing request
-              try {
-                Object requestBody = request.body();
-                if (requestBody instanceof MailDropRequest) {
-                  String prettyJson = objectMapper.writeValueAsString(requestBody);
-                  logger.info("\nAI Lab request:\n" + prettyJson);
-                }
-              } catch (Exception e) {
-                logger.warn("Could not log request", e);
-              }
-              return next.exchange(request);
-            })
-        .build();
+    return new MailDropResponse(quotes);
   }
+}
 
-  // Update the parseMsgFile method to handle missing recipients
-  private MimeMessage parseMsgFile(String base64Content, Session session) throws Exception {
-    // Decode base64 content
-    byte[] msgBytes = Base64.getDecoder().decode(base64Content);
-    ByteArrayInputStream bis = new ByteArrayInputStream(msgBytes);
-
-    // Parse MSG file using POI
-    MAPIMessage msg = new MAPIMessage(bis);
+// Data classes
+// Untouched emails are neither sent nor edited since they were parsed. errorCodes counts failed
+// trades per AI error code.
+record Analytics(
+    long totalEmails,
+    long totalExtracted,
+    long totalSent,
+    long totalUntouched,
+    long totalTrades,
+    long successfulTrades,
+    long failedTrades,
+    Map<Integer, Long> errorCodes) {}
+
+enum TradeExportFormat {
+  CSV("text/csv"),
+  NDJSON("application/x-ndjson");
+
+  final String contentType;
+
+  TradeExportFormat(String contentType) {
+    this.contentType = contentType;
+  }
+}
 
-    // Create a new MimeMessage
-    MimeMessage mimeMessage = new MimeMessage(session);
+// Trades to export: those of the emails matching the email filter that also match every set trade
+// criterion. Trades without a trade date are left out by a trade date bound.
+record TradeExportQuery(
+    EmailFilter emails,
+    LocalDate tradeDateFrom,
+    LocalDate tradeDateTo,
+    String currency,
+    String clientId,
+    Boolean success) {
 
-    // Set From - handle null case
-    try {
-      String displayFrom = msg.getDisplayFrom();
-      if (displayFrom != null && !displayFrom.isEmpty()) {
-        mimeMessage.setFrom(new InternetAddress(displayFrom));
-      }
-    } catch (Exception e) {
-      logger.warn("Could not parse 'From' address from MSG file", e);
+  boolean matches(Trade trade) {
+    if (currency != null && !currency.equalsIgnoreCase(trade.currency())) {
+      return false;
     }
-
-    // Set Subject - handle null case
-    try {
-      String subject = msg.getSubject();
-      if (subject != null && !subject.isEmpty()) {
-        mimeMessage.setSubject(subject);
-      }
-    } catch (Exception e) {
-      logger.warn("Could not parse subject from MSG file", e);
+    if (clientId != null && !clientId.equals(trade.clientId())) {
+      return false;
     }
-
-    // Set To recipients - handle missing recipients section
-    try {
-      String[] recipients = msg.getRecipientEmailAddressList();
-      if (recipients != null && recipients.length > 0) {
-        for (String recipient : recipients) {
-          if (recipient != null && !recipient.isEmpty()) {
-            mimeMessage.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
-          }
-        }
-      }
-    } catch (Exception e) {
-      logger.warn("Could not parse recipients from MSG file", e);
-      // Set default recipient if needed for your use case
-      // mimeMessage.addRecipient(Message.RecipientType.TO, new
-      // InternetAddress("default@example.com"));
+    if (success != null && success != trade.isSuccess()) {
+      return false;
     }
-
-    // Set body - handle both HTML and plain text
-    try {
-      String htmlBody = msg.getHtmlBody();
-      String textBody = msg.getTextBody();
-
-      if (htmlBody != null && !htmlBody.isEmpty()) {
-        mimeMessage.setContent(htmlBody, "text/html; charset=UTF-8");
-      } else if (textBody != null && !textBody.isEmpty()) {
-        mimeMessage.setText(textBody);
-      } else {
-        // Set empty body if both are null
-        mimeMessage.setText("");
-      }
-    } catch (Exception e) {
-      logger.warn("Could not parse body from MSG file", e);
-      mimeMessage.setText(""); // Set empty body as fallback
+    if (tradeDateFrom == null && tradeDateTo == null) {
+      return true;
     }
-
-    return mimeMessage;
+    LocalDate tradeDate = EmailSearchIndex.date(trade.tradeDate());
+    return tradeDate != null
+        && (tradeDateFrom == null || !tradeDate.isBefore(tradeDateFrom))
+        && (tradeDateTo == null || !tradeDate.isAfter(tradeDateTo));
   }
 }
 
-// Data classes
-record Analytics(int totalEmails, int totalExtracted, int totalSent, int totalUntouched) {}
+enum TradeGrouping {
+  CURRENCY,
+  CLIENT,
+  DAY
+}
+
+// group is the client id or trade day, null when grouping by currency
+record NotionalTotal(String group, String currency, long trades, double notional) {}
+
+record SchemaSuccessRate(
+    String schemaType, String schemaVersion, long trades, long successful, double successRate) {}
 
 record Email(
     // Email metadata
@@ -722,16 +834,38 @@ record Email(
     String[] toEmails,
     String[] cc,
     String body,
+    // The body was cut at parse.body.max-chars, the AI Lab only saw the start of the email
+    boolean bodyTruncated,
     List<Trade> trades,
     Boolean sent,
     LocalDateTime createdAt,
-    LocalDateTime modifiedAt) {}
+    LocalDateTime modifiedAt,
+    // Bumped by the repository on every change, sent as the ETag of GET /api/email/{id}
+    long version) {
+
+  Email withVersion(long version) {
+    return new Email(
+        id,
+        subject,
+        fromEmail,
+        toEmails,
+        cc,
+        body,
+        bodyTruncated,
+        trades,
+        sent,
+        createdAt,
+        modifiedAt,
+        version);
+  }
+}
 
 record Trade(
     Long id,
     Long emailId,
     boolean isSuccess,
     String errorMessage,
+    List<Integer> errorCodes,
     String clientWay,
     String currency,
     String isinCode,
@@ -751,4 +885,193 @@ record Trade(
 
 record EmailRequest(String body, String fileType) {}
 
-record EmailResponse(List<Email> items, int total) {}
+// An uploaded email ready for the AI Lab, with what the stored email needs to know about it. The
+// request carries the normalized body, body is the one extracted from the email.
+record ParsedMessage(
+    EmailParserApplication.MailDropRequest request, String body, boolean bodyTruncated) {}
+
+// Search criteria, all optional. Trade criteria must all hold for the same trade.
+record EmailSearchQuery(
+    String text,
+    String isinCode,
+    String securityCode,
+    String currency,
+    String clientWay,
+    String clientId,
+    String brokerId,
+    String sender,
+    EmailStatus status,
+    Boolean sent,
+    LocalDate tradeDateFrom,
+    LocalDate tradeDateTo,
+    LocalDateTime from,
+    LocalDateTime to) {
+
+  boolean hasTradeFilters() {
+    return tradeCriteria() > 0;
+  }
+
+  // The trade date range counts as one criterion
+  int tradeCriteria() {
+    return (int)
+        (Stream.of(isinCode, securityCode, currency, clientWay, clientId, brokerId)
+                .filter(Objects::nonNull)
+                .count()
+            + (tradeDateFrom != null || tradeDateTo != null ? 1 : 0));
+  }
+
+  boolean matches(Trade trade) {
+    LocalDate tradeDate = EmailSearchIndex.date(trade.tradeDate());
+    return same(isinCode, trade.isinCode())
+        && same(securityCode, trade.securityCode())
+        && same(currency, trade.currency())
+        && same(clientWay, trade.clientWay())
+        && same(clientId, trade.clientId())
+        && same(brokerId, trade.brokerId())
+        && (tradeDateFrom == null || (tradeDate != null && !tradeDate.isBefore(tradeDateFrom)))
+        && (tradeDateTo == null || (tradeDate != null && !tradeDate.isAfter(tradeDateTo)));
+  }
+
+  private static boolean same(String wanted, String value) {
+    return wanted == null || (value != null && wanted.trim().equalsIgnoreCase(value.trim()));
+  }
+}
+
+// score is the text relevance, null without q. trades are the ones matching the trade criteria.
+record SearchHit(EmailSummary email, Float score, List<Trade> trades) {}
+
+// total is an upper bound when totalExact is false, see EmailSearchService
+record SearchResponse(long total, boolean totalExact, List<SearchHit> hits) {}
+
+enum EmailChangeType {
+  CREATED,
+  UPDATED,
+  DELETED
+}
+
+// One event of the change feed, email is the new list row (null for DELETED)
+record EmailChange(EmailChangeType type, Long id, EmailSummary email) {}
+
+enum ParseJobState {
+  QUEUED,
+  PARSING,
+  EXTRACTING,
+  COMPLETED,
+  FAILED
+}
+
+record ParseJob(
+    String id,
+    ParseJobState state,
+    Email email,
+    String error,
+    LocalDateTime submittedAt,
+    LocalDateTime updatedAt) {}
+
+record BulkParseItem(String name, Long emailId, String error) {}
+
+record BulkParseJob(
+    String id,
+    ParseJobState state,
+    int received,
+    int succeeded,
+    int failed,
+    List<BulkParseItem> items,
+    String error,
+    LocalDateTime submittedAt,
+    LocalDateTime finishedAt) {}
+
+// Email list row without body and trade details
+record EmailSummary(
+    Long id,
+    String subject,
+    String fromEmail,
+    int tradeCount,
+    int successfulTrades,
+    int failedTrades,
+    EmailStatus status,
+    Boolean sent,
+    LocalDateTime createdAt,
+    LocalDateTime modifiedAt) {
+
+  static EmailSummary of(Email email) {
+    List<Trade> trades = email.trades() != null ? email.trades() : List.of();
+    int successful = (int) trades.stream().filter(Trade::isSuccess).count();
+    return new EmailSummary(
+        email.id(),
+        email.subject(),
+        email.fromEmail(),
+        trades.size(),
+        successful,
+        trades.size() - successful,
+        EmailStatus.of(email),
+        email.sent(),
+        email.createdAt(),
+        email.modifiedAt());
+  }
+}
+
+// Trade extraction outcome of an email
+enum EmailStatus {
+  SUCCESS,
+  FAILED,
+  MIXED,
+  NONE;
+
+  static EmailStatus of(Email email) {
+    boolean anySuccess = false;
+    boolean anyFailed = false;
+    if (email.trades() != null) {
+      for (Trade trade : email.trades()) {
+        anySuccess |= trade.isSuccess();
+        anyFailed |= !trade.isSuccess();
+      }
+    }
+    if (anySuccess && anyFailed) {
+      return MIXED;
+    }
+    return anySuccess ? SUCCESS : anyFailed ? FAILED : NONE;
+  }
+}
+
+// Email list filters, null fields match everything, date bounds are inclusive
+record EmailFilter(
+    Boolean sent, String sender, LocalDateTime from, LocalDateTime to, EmailStatus status) {
+
+  boolean isEmpty() {
+    return sent == null && sender == null && from == null && to == null && status == null;
+  }
+
+  boolean matches(Email email) {
+    return (sent == null || sent.equals(email.sent()))
+        && (sender == null
+            || (email.fromEmail() != null
+                && email.fromEmail().toLowerCase().contains(sender.toLowerCase())))
+        && (from == null || !email.createdAt().isBefore(from))
+        && (to == null || !email.createdAt().isAfter(to))
+        && (status == null || status == EmailStatus.of(email));
+  }
+}
+
+// Keyset position in the newest-first email list, opaque to clients
+record EmailCursor(LocalDateTime createdAt, long id) {
+
+  String encode() {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString((createdAt + "|" + id).getBytes(StandardCharsets.UTF_8));
+  }
+
+  static EmailCursor decode(String cursor) {
+    try {
+      String[] parts =
+          new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+      return new EmailCursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]));
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("malformed cursor", e);
+    }
+  }
+}
+
+// total counts the emails matching the filters, it is null on pages after the first when filtering
+record EmailResponse(List<EmailSummary> items, Integer total, String nextCursor) {}
@@ -0,0 +1,16 @@
+package org.example;
+
+import java.util.Collection;
+
+// Durable storage behind the in-memory repository, which stays the source of truth for reads
+public interface EmailPersistence {
+
+  // Latest stored version of every email, called once at startup
+  Collection<Email> load();
+
+  // Queue the latest version of an email for writing, must not block the caller
+  void save(Email email);
+
+  // Queue the removal of an email, same ordering and blocking rules as save
+  void delete(long id);
+}
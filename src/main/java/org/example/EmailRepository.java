@@ -0,0 +1,47 @@
+package org.example;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+// Storage for parsed emails and their trades, shared by the controller and the parse pipeline
+public interface EmailRepository {
+
+  long nextEmailId();
+
+  long nextTradeId();
+
+  void add(Email email);
+
+  // Add an email that is only kept in memory, as are later changes to it: mock data must not
+  // outlive a restart or mix with the parsed emails on disk
+  void addMock(Email email);
+
+  boolean isEmpty();
+
+  int count();
+
+  // Emails matching the filter
+  int count(EmailFilter filter);
+
+  // All emails, newest first
+  List<Email> findAll();
+
+  // Up to limit emails matching the filter, newest first, strictly older than the cursor if set
+  List<Email> find(EmailFilter filter, EmailCursor after, int limit);
+
+  Optional<Email> findById(Long id);
+
+  Optional<Trade> findTradeById(Long id);
+
+  // Replace an email with the result of merging it, if it exists, stamped with the next version.
+  // A merge that returns the email itself changes nothing. Exceptions thrown by the merge abort
+  // the update and reach the caller.
+  Optional<Email> update(Long id, UnaryOperator<Email> merge);
+
+  // Remove an email and its trades, returns the removed email if it existed
+  Optional<Email> delete(Long id);
+
+  // Seed mock data when the store is empty, kept in memory only
+  void initializeMockData();
+}
@@ -0,0 +1,301 @@
+package org.example;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.QueryBuilder;
+import org.example.PendingEmailChanges.Change;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Lucene index of emails and their trades, one document per email. Kept up to date from
+// repository changes by a background indexer (the repository stays the source of truth, search
+// results lag writes by one indexing batch), and rebuilt from the repository on startup. Changes
+// are handed over without blocking the writer, an email changed again before it was indexed is
+// indexed once in its latest version. Subject and body are searched with BM25; trade fields are
+// indexed as exact, case-insensitive keywords and trade dates as points, one value per trade.
+@Component
+public class EmailSearchIndex implements EmailChangeListener {
+
+  private static final String ID = "id";
+  private static final String CREATED_AT = "createdAt";
+  private static final String SUBJECT = "subject";
+  private static final String BODY = "body";
+  private static final String SENDER = "sender";
+  private static final String SENDER_DOMAIN = "senderDomain";
+  private static final String STATUS = "status";
+  private static final String SENT = "sent";
+  private static final String ISIN = "isinCode";
+  private static final String SECURITY = "securityCode";
+  private static final String CURRENCY = "currency";
+  private static final String CLIENT_WAY = "clientWay";
+  private static final String CLIENT_ID = "clientId";
+  private static final String BROKER_ID = "brokerId";
+  private static final String TRADE_DATE = "tradeDate";
+
+  private final Analyzer analyzer = new StandardAnalyzer();
+  private final Directory directory;
+  private final IndexWriter writer;
+  private final SearcherManager searcherManager;
+  private final PendingEmailChanges pending;
+
+  public EmailSearchIndex(
+      MeterRegistry meterRegistry,
+      @Value("${search.directory:}") String directoryPath,
+      @Value("${search.batch-size:1000}") int batchSize,
+      @Value("${search.ram-buffer-mb:64}") double ramBufferMb)
+      throws IOException {
+    // On disk the index is memory-mapped outside the heap, either way it is rebuilt on startup
+    this.directory =
+        directoryPath.isBlank()
+            ? new ByteBuffersDirectory()
+            : new MMapDirectory(Path.of(directoryPath));
+    this.writer =
+        new IndexWriter(
+            directory,
+            new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+                .setRAMBufferSizeMB(ramBufferMb));
+    this.searcherManager = new SearcherManager(writer, null);
+    this.pending =
+        new PendingEmailChanges(
+            "email-search-indexer", batchSize, Duration.ofMillis(200), this::index);
+    meterRegistry.gauge("search.index.pending", pending, PendingEmailChanges::size);
+
+    // Started here, the repository replays stored emails into the index while it is created
+    this.pending.start();
+  }
+
+  @Override
+  public void emailChanged(Email previous, Email current) {
+    pending.put(current != null ? current.id() : previous.id(), current);
+  }
+
+  // Ids of the best matching emails: by relevance when there is text, otherwise newest first
+  SearchPage search(EmailSearchQuery query, int count) {
+    try {
+      IndexSearcher searcher = searcherManager.acquire();
+      try {
+        Query luceneQuery = toLuceneQuery(query);
+        boolean ranked = query.text() != null && !query.text().isBlank();
+        Sort sort =
+            ranked
+                ? new Sort(
+                    SortField.FIELD_SCORE, new SortField(CREATED_AT, SortField.Type.LONG, true))
+                : new Sort(
+                    new SortField(CREATED_AT, SortField.Type.LONG, true),
+                    new SortField(ID, SortField.Type.LONG, true));
+        TopFieldDocs top = searcher.search(luceneQuery, Math.max(count, 1), sort, ranked);
+        StoredFields storedFields = searcher.storedFields();
+        List<ScoredId> ids = new ArrayList<>(top.scoreDocs.length);
+        for (ScoreDoc scoreDoc : top.scoreDocs) {
+          long id = storedFields.document(scoreDoc.doc).getField(ID).numericValue().longValue();
+          ids.add(new ScoredId(id, ranked ? scoreDoc.score : null));
+        }
+        return new SearchPage(searcher.count(luceneQuery), ids);
+      } finally {
+        searcherManager.release(searcher);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Query toLuceneQuery(EmailSearchQuery query) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    boolean any = false;
+    if (query.text() != null && !query.text().isBlank()) {
+      // Any of the words, in the subject (weighted up) or the body
+      QueryBuilder parser = new QueryBuilder(analyzer);
+      BooleanQuery.Builder text = new BooleanQuery.Builder();
+      Query subject = parser.createBooleanQuery(SUBJECT, query.text());
+      Query body = parser.createBooleanQuery(BODY, query.text());
+      if (subject != null) {
+        text.add(new BoostQuery(subject, 2f), Occur.SHOULD);
+      }
+      if (body != null) {
+        text.add(body, Occur.SHOULD);
+      }
+      builder.add(text.build(), Occur.MUST);
+      any = true;
+    }
+    any |= filter(builder, ISIN, query.isinCode());
+    any |= filter(builder, SECURITY, query.securityCode());
+    any |= filter(builder, CURRENCY, query.currency());
+    any |= filter(builder, CLIENT_WAY, query.clientWay());
+    any |= filter(builder, CLIENT_ID, query.clientId());
+    any |= filter(builder, BROKER_ID, query.brokerId());
+    any |= filter(builder, STATUS, query.status() != null ? query.status().name() : null);
+    any |= filter(builder, SENT, query.sent() != null ? query.sent().toString() : null);
+    if (query.sender() != null && !query.sender().isBlank()) {
+      // A full address, or a domain given as "@bank.com" / "bank.com"
+      String sender = keyword(query.sender());
+      any |=
+          sender.indexOf('@') > 0
+              ? filter(builder, SENDER, sender)
+              : filter(builder, SENDER_DOMAIN, sender.substring(sender.indexOf('@') + 1));
+    }
+    if (query.tradeDateFrom() != null || query.tradeDateTo() != null) {
+      builder.add(
+          LongPoint.newRangeQuery(
+              TRADE_DATE,
+              query.tradeDateFrom() != null ? query.tradeDateFrom().toEpochDay() : Long.MIN_VALUE,
+              query.tradeDateTo() != null ? query.tradeDateTo().toEpochDay() : Long.MAX_VALUE),
+          Occur.FILTER);
+      any = true;
+    }
+    if (query.from() != null || query.to() != null) {
+      builder.add(
+          LongPoint.newRangeQuery(
+              CREATED_AT,
+              query.from() != null ? millis(query.from()) : Long.MIN_VALUE,
+              query.to() != null ? millis(query.to()) : Long.MAX_VALUE),
+          Occur.FILTER);
+      any = true;
+    }
+    return any ? builder.build() : new MatchAllDocsQuery();
+  }
+
+  private static boolean filter(BooleanQuery.Builder builder, String field, String value) {
+    if (value == null || value.isBlank()) {
+      return false;
+    }
+    builder.add(new TermQuery(new Term(field, keyword(value))), Occur.FILTER);
+    return true;
+  }
+
+  // A batch of changes, one per email
+  private void index(List<Change> batch) {
+    try {
+      for (Change change : batch) {
+        Term id = new Term(ID + "Key", Long.toString(change.id()));
+        if (change.email() == null) {
+          writer.deleteDocuments(id);
+        } else {
+          writer.updateDocument(id, document(change.email()));
+        }
+      }
+      searcherManager.maybeRefresh();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Document document(Email email) {
+    Document document = new Document();
+    document.add(new StringField(ID + "Key", Long.toString(email.id()), Field.Store.NO));
+    document.add(new StoredField(ID, email.id()));
+    document.add(new NumericDocValuesField(ID, email.id()));
+    long createdAt = email.createdAt() != null ? millis(email.createdAt()) : 0;
+    document.add(new LongPoint(CREATED_AT, createdAt));
+    document.add(new NumericDocValuesField(CREATED_AT, createdAt));
+    if (email.subject() != null) {
+      document.add(new TextField(SUBJECT, email.subject(), Field.Store.NO));
+    }
+    if (email.body() != null) {
+      // Stored bodies are the raw HTML, only its text is searched
+      document.add(new TextField(BODY, HtmlNormalizer.text(email.body()), Field.Store.NO));
+    }
+    if (email.fromEmail() != null) {
+      String sender = keyword(email.fromEmail());
+      document.add(new StringField(SENDER, sender, Field.Store.NO));
+      document.add(
+          new StringField(
+              SENDER_DOMAIN, sender.substring(sender.indexOf('@') + 1), Field.Store.NO));
+    }
+    document.add(new StringField(STATUS, keyword(EmailStatus.of(email).name()), Field.Store.NO));
+    document.add(
+        new StringField(SENT, Boolean.toString(Boolean.TRUE.equals(email.sent())), Field.Store.NO));
+    if (email.trades() != null) {
+      for (Trade trade : email.trades()) {
+        keyword(document, ISIN, trade.isinCode());
+        keyword(document, SECURITY, trade.securityCode());
+        keyword(document, CURRENCY, trade.currency());
+        keyword(document, CLIENT_WAY, trade.clientWay());
+        keyword(document, CLIENT_ID, trade.clientId());
+        keyword(document, BROKER_ID, trade.brokerId());
+        LocalDate tradeDate = date(trade.tradeDate());
+        if (tradeDate != null) {
+          document.add(new LongPoint(TRADE_DATE, tradeDate.toEpochDay()));
+        }
+      }
+    }
+    return document;
+  }
+
+  private static void keyword(Document document, String field, String value) {
+    if (value != null && !value.isBlank()) {
+      document.add(new StringField(field, keyword(value), Field.Store.NO));
+    }
+  }
+
+  private static String keyword(String value) {
+    return value.trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static long millis(LocalDateTime dateTime) {
+    return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+  // Trade dates are stored as "2024-05-06T00:00" or "2024-05-06"
+  static LocalDate date(String value) {
+    if (value == null || value.length() < 10) {
+      return null;
+    }
+    try {
+      return LocalDate.parse(value.substring(0, 10));
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  @PreDestroy
+  void shutdown() throws InterruptedException, IOException {
+    pending.close(Duration.ofSeconds(30));
+    searcherManager.close();
+    writer.close();
+    directory.close();
+  }
+
+  record ScoredId(long id, Float score) {}
+
+  record SearchPage(long total, List<ScoredId> ids) {}
+}
@@ -0,0 +1,97 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.example.EmailSearchIndex.ScoredId;
+import org.example.EmailSearchIndex.SearchPage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Runs searches against the index and resolves the hits from the repository, so results always
+// show the current version of an email
+@Service
+public class EmailSearchService {
+
+  private final EmailSearchIndex searchIndex;
+  private final EmailRepository emailRepository;
+  private final int maxWindow;
+
+  public EmailSearchService(
+      EmailSearchIndex searchIndex,
+      EmailRepository emailRepository,
+      @Value("${search.max-window:10000}") int maxWindow) {
+    this.searchIndex = searchIndex;
+    this.emailRepository = emailRepository;
+    this.maxWindow = maxWindow;
+  }
+
+  SearchResponse search(EmailSearchQuery query, int offset, int limit) {
+    if (offset + limit > maxWindow) {
+      throw new IllegalArgumentException(
+          "offset + limit must not exceed " + maxWindow + ", narrow the query instead");
+    }
+    int wanted = offset + limit;
+    SearchPage page = searchIndex.search(query, wanted);
+    if (query.tradeCriteria() < 2) {
+      // Every indexed match is a hit (bar emails deleted since), the index total is exact
+      return new SearchResponse(page.total(), true, resolve(query, page, offset, wanted).hits());
+    }
+
+    // The index matches trade criteria per email, so an email whose trades each match a
+    // different criterion is a false hit. Verify every candidate when there are few enough for an
+    // exact total, otherwise verify just enough for the page and report the total as a bound.
+    if (page.total() <= maxWindow) {
+      Resolved all =
+          resolve(query, searchIndex.search(query, (int) page.total()), 0, Integer.MAX_VALUE);
+      List<SearchHit> hits = all.hits();
+      return new SearchResponse(
+          hits.size(),
+          true,
+          hits.subList(Math.min(offset, hits.size()), Math.min(wanted, hits.size())));
+    }
+    for (int count = wanted; ; count = Math.min(count * 2, maxWindow)) {
+      Resolved resolved = resolve(query, searchIndex.search(query, count), offset, wanted);
+      if (resolved.complete() || count >= maxWindow) {
+        return new SearchResponse(page.total(), false, resolved.hits());
+      }
+    }
+  }
+
+  // Hits offset to wanted among the verified candidates of a page, complete once wanted were
+  // found or the page holds every match
+  private Resolved resolve(EmailSearchQuery query, SearchPage page, int offset, int wanted) {
+    List<SearchHit> hits = new ArrayList<>();
+    int found = 0;
+    for (ScoredId scoredId : page.ids()) {
+      Optional<SearchHit> hit = hit(query, scoredId);
+      if (hit.isPresent() && found++ >= offset) {
+        hits.add(hit.get());
+      }
+      if (found == wanted) {
+        return new Resolved(hits, true);
+      }
+    }
+    return new Resolved(hits, page.ids().size() >= page.total());
+  }
+
+  // The email with the trades that match the trade filters, empty if none does or the email was
+  // deleted since it was indexed
+  private Optional<SearchHit> hit(EmailSearchQuery query, ScoredId scoredId) {
+    return emailRepository
+        .findById(scoredId.id())
+        .flatMap(
+            email -> {
+              List<Trade> trades = email.trades() != null ? email.trades() : List.of();
+              if (query.hasTradeFilters()) {
+                trades = trades.stream().filter(query::matches).toList();
+                if (trades.isEmpty()) {
+                  return Optional.empty();
+                }
+              }
+              return Optional.of(new SearchHit(EmailSummary.of(email), scoredId.score(), trades));
+            });
+  }
+
+  private record Resolved(List<SearchHit> hits, boolean complete) {}
+}
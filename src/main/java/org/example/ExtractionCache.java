@@ -0,0 +1,118 @@
+package org.example;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+// AI Lab results keyed by a hash of the normalized message (from, subject, body), so re-uploads of
+// the same email skip the model call. Concurrent uploads of the same email share one call.
+@Component
+public class ExtractionCache {
+
+  private final boolean enabled;
+  private final int maxSize;
+  private final long ttlNanos;
+  private final Counter hits;
+  private final Counter misses;
+
+  // Access ordered, so the eldest entry is the least recently used
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > maxSize;
+        }
+      };
+
+  public ExtractionCache(
+      MeterRegistry meterRegistry,
+      @Value("${parse.cache.enabled:true}") boolean enabled,
+      @Value("${parse.cache.max-size:10000}") int maxSize,
+      @Value("${parse.cache.ttl:24h}") Duration ttl) {
+    this.enabled = enabled;
+    this.maxSize = maxSize;
+    this.ttlNanos = ttl.toNanos();
+    this.hits = meterRegistry.counter("parse.cache.requests", "result", "hit");
+    this.misses = meterRegistry.counter("parse.cache.requests", "result", "miss");
+    meterRegistry.gauge("parse.cache.size", this, ExtractionCache::size);
+  }
+
+  // Cached response for the request, or the loader's response which is then cached. Failed calls
+  // and calls that complete without a response are not cached.
+  Mono<MailDropResponse> get(
+      MailDropRequest request, Function<MailDropRequest, Mono<MailDropResponse>> loader) {
+    if (!enabled) {
+      return loader.apply(request);
+    }
+    String key = key(request);
+    long now = System.nanoTime();
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry != null && now - entry.createdAt() < ttlNanos) {
+        hits.increment();
+        return entry.response();
+      }
+      misses.increment();
+      Mono<MailDropResponse> response = Mono.defer(() -> loader.apply(request)).cache();
+      entry = new Entry(response, now);
+      entries.put(key, entry);
+    }
+
+    Entry loading = entry;
+    return loading
+        .response()
+        .doOnError(e -> evict(key, loading))
+        .switchIfEmpty(Mono.fromRunnable(() -> evict(key, loading)));
+  }
+
+  // Only the entry that failed is dropped, not one a later miss put in its place
+  private void evict(String key, Entry entry) {
+    synchronized (entries) {
+      entries.remove(key, entry);
+    }
+  }
+
+  private int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  // Whitespace and address case differences between re-sent copies do not change the key
+  static String key(MailDropRequest request) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      update(digest, normalize(request.from()).toLowerCase(Locale.ROOT));
+      update(digest, normalize(request.subject()));
+      update(digest, normalize(request.htmlPart()));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static String normalize(String value) {
+    return value == null ? "" : value.strip().replaceAll("\\s+", " ");
+  }
+
+  private record Entry(Mono<MailDropResponse> response, long createdAt) {}
+}
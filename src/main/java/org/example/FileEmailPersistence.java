@@ -0,0 +1,337 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.example.PendingEmailChanges.Change;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Append-only JSON lines log with periodic snapshots. Saves are queued and written in batches by
+// a single background thread (write-behind); startup loads the snapshot and replays the log.
+// Deletes are logged as {"deleted":id} tombstones, which compaction drops with the email. Only
+// the latest unwritten version of each email is queued, so a disk that falls behind costs at most
+// one queued change per email and never blocks the repository. A batch that cannot be written
+// goes back to the queue and is retried with backoff, meanwhile /actuator/health reports this
+// store as down.
+@Component
+@ConditionalOnProperty(name = "persistence.type", havingValue = "file", matchIfMissing = true)
+public class FileEmailPersistence implements EmailPersistence, HealthIndicator {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileEmailPersistence.class);
+  private static final String TOMBSTONE_PREFIX = "{\"deleted\":";
+  private static final Duration FIRST_RETRY = Duration.ofMillis(100);
+  private static final Duration MAX_RETRY = Duration.ofSeconds(30);
+
+  private final ObjectMapper objectMapper;
+  private final Path snapshotFile;
+  private final Path logFile;
+  private final long compactAfter;
+  private final boolean fsync;
+  private final PendingEmailChanges pending;
+
+  private FileChannel logChannel;
+  private OutputStream logOut;
+  private long logRecords;
+
+  // Failed attempts in a row to write a batch, and the last error, read by health()
+  private volatile int failedWrites;
+  private volatile String lastError;
+
+  public FileEmailPersistence(
+      ObjectMapper objectMapper,
+      MeterRegistry meterRegistry,
+      @Value("${persistence.directory:data}") Path directory,
+      @Value("${persistence.batch-size:500}") int batchSize,
+      @Value("${persistence.flush-interval:200ms}") Duration flushInterval,
+      @Value("${persistence.compact-after:100000}") long compactAfter,
+      @Value("${persistence.fsync:false}") boolean fsync)
+      throws IOException {
+    this.objectMapper = objectMapper;
+    this.snapshotFile = directory.resolve("emails.snapshot");
+    this.logFile = directory.resolve("emails.log");
+    this.compactAfter = compactAfter;
+    this.fsync = fsync;
+    this.pending =
+        new PendingEmailChanges("email-write-behind", batchSize, flushInterval, this::write);
+    meterRegistry.gauge("persistence.pending", pending, PendingEmailChanges::size);
+    meterRegistry.gauge("persistence.write.failures", this, store -> store.failedWrites);
+    Files.createDirectories(directory);
+  }
+
+  @Override
+  public synchronized Collection<Email> load() {
+    try {
+      Map<Long, Email> emails = new LinkedHashMap<>();
+      long snapshotRecords = readLines(snapshotFile, emails);
+      logRecords = readLines(logFile, emails);
+      logger.info(
+          "Loaded {} emails ({} snapshot records, {} log records)",
+          emails.size(),
+          snapshotRecords,
+          logRecords);
+
+      // Fold a long log into the snapshot now, the merged state is already in memory
+      if (logRecords >= compactAfter) {
+        writeSnapshot(emails.values());
+      }
+      openLog();
+      pending.start();
+      return emails.values();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not load emails from " + logFile.getParent(), e);
+    }
+  }
+
+  @Override
+  public void save(Email email) {
+    pending.put(email.id(), email);
+  }
+
+  @Override
+  public void delete(long id) {
+    pending.put(id, null);
+  }
+
+  // Runs on the writer thread. On an I/O error the batch goes back to the queue, minus emails that
+  // changed again meanwhile, and the thread waits before the next attempt.
+  private void write(List<Change> batch) {
+    try {
+      writeBatch(batch);
+    } catch (IOException e) {
+      lastError = e.toString();
+      int failed = ++failedWrites;
+      pending.requeue(batch);
+      long backoff =
+          Math.min(FIRST_RETRY.toMillis() << Math.min(failed - 1, 20), MAX_RETRY.toMillis());
+      logger.error(
+          "Could not write {} emails (attempt {}), retrying in {}ms",
+          batch.size(),
+          failed,
+          backoff,
+          e);
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return;
+    }
+    if (failedWrites > 0) {
+      logger.info("Writing emails again after {} failed attempts", failedWrites);
+      failedWrites = 0;
+      lastError = null;
+    }
+  }
+
+  private synchronized void writeBatch(List<Change> batch) throws IOException {
+    // Serialized up front: an email that cannot be serialized will not be by retrying, so it is
+    // left out instead of holding up the others
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    int written = 0;
+    for (Change change : batch) {
+      try {
+        records.write(
+            objectMapper.writeValueAsBytes(
+                change.email() != null ? change.email() : new Tombstone(change.id())));
+        records.write('\n');
+        written++;
+      } catch (JsonProcessingException e) {
+        logger.error("Could not serialize email {}, it is not saved", change.id(), e);
+      }
+    }
+
+    if (logOut == null) {
+      // A failed write or compaction closed it
+      openLog();
+    }
+    try {
+      records.writeTo(logOut);
+      logOut.flush();
+      if (fsync) {
+        logChannel.force(false);
+      }
+    } catch (IOException e) {
+      // Drop what is still buffered, the batch is written again in full
+      discardLog();
+      throw e;
+    }
+    logRecords += written;
+
+    if (logRecords >= compactAfter) {
+      try {
+        compact();
+      } catch (IOException e) {
+        // The batch is in the log, compaction is tried again after the next one
+        logger.error("Could not compact the email log of {} records", logRecords, e);
+      }
+    }
+  }
+
+  // Rewrite snapshot + log as a new snapshot and start an empty log. Runs on the writer thread,
+  // so nothing is appended meanwhile; queued saves land in the new log. The old log stays open
+  // until the new snapshot is in place, a failure before that leaves both files as they were.
+  private void compact() throws IOException {
+    Map<Long, Email> emails = new LinkedHashMap<>();
+    readLines(snapshotFile, emails);
+    readLines(logFile, emails);
+    Path snapshot = writeSnapshotFile(emails.values());
+    closeLog();
+    try {
+      replaceSnapshot(snapshot);
+    } finally {
+      openLog();
+    }
+    logger.info("Compacted email log into a snapshot of {} emails", emails.size());
+  }
+
+  private void writeSnapshot(Collection<Email> emails) throws IOException {
+    replaceSnapshot(writeSnapshotFile(emails));
+  }
+
+  private Path writeSnapshotFile(Collection<Email> emails) throws IOException {
+    Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+      for (Email email : emails) {
+        out.write(objectMapper.writeValueAsBytes(email));
+        out.write('\n');
+      }
+    }
+    return tmp;
+  }
+
+  // A crash between the move and the delete replays the log over a snapshot that already holds
+  // it, which ends in the same state
+  private void replaceSnapshot(Path snapshot) throws IOException {
+    Files.move(
+        snapshot,
+        snapshotFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    Files.deleteIfExists(logFile);
+    logRecords = 0;
+  }
+
+  private long readLines(Path file, Map<Long, Email> emails) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    long records = 0;
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        try {
+          if (line.startsWith(TOMBSTONE_PREFIX)) {
+            emails.remove(objectMapper.readValue(line, Tombstone.class).deleted());
+          } else {
+            Email email = objectMapper.readValue(line, Email.class);
+            emails.put(email.id(), email);
+          }
+          records++;
+        } catch (IOException e) {
+          // A torn last line after a crash, everything before it is intact
+          logger.warn("Skipping unreadable record in {}", file, e);
+        }
+      }
+    }
+    return records;
+  }
+
+  private void openLog() throws IOException {
+    boolean tornRecord = endsMidRecord();
+    logChannel =
+        FileChannel.open(
+            logFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    logOut = new BufferedOutputStream(Channels.newOutputStream(logChannel));
+    if (tornRecord) {
+      // End the part of a record a failed write left, so the next one starts on its own line
+      logOut.write('\n');
+    }
+  }
+
+  private boolean endsMidRecord() throws IOException {
+    if (!Files.exists(logFile) || Files.size(logFile) == 0) {
+      return false;
+    }
+    try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ)) {
+      ByteBuffer last = ByteBuffer.allocate(1);
+      log.read(last, log.size() - 1);
+      return last.get(0) != '\n';
+    }
+  }
+
+  private void closeLog() throws IOException {
+    OutputStream out = logOut;
+    logOut = null;
+    logChannel = null;
+    if (out != null) {
+      out.close();
+    }
+  }
+
+  // Closes the log without flushing what is buffered
+  private void discardLog() {
+    FileChannel channel = logChannel;
+    logOut = null;
+    logChannel = null;
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Could not close the email log", e);
+    }
+  }
+
+  @Override
+  public Health health() {
+    int failed = failedWrites;
+    String error = lastError;
+    Health.Builder health =
+        failed == 0 || error == null
+            ? Health.up()
+            : Health.down().withDetail("failedWrites", failed).withDetail("error", error);
+    return health.withDetail("pending", pending.size()).build();
+  }
+
+  @PreDestroy
+  void shutdown() throws InterruptedException, IOException {
+    // Write what is still queued before closing the log
+    pending.close(Duration.ofSeconds(30));
+    synchronized (this) {
+      closeLog();
+    }
+  }
+
+  private record Tombstone(long deleted) {}
+}
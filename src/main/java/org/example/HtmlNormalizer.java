@@ -0,0 +1,394 @@
+package org.example;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Shrinks email bodies before they are sent to the AI Lab, in one pass over the text. Styles,
+// scripts, the head, comments, Office/VML markup and all attributes are dropped, only structural
+// and table tags are kept, and whitespace is collapsed. Quoted history and signatures can be cut
+// as well; tables inside them are kept, since forwarded confirmations carry their trades there.
+@Component
+public class HtmlNormalizer {
+
+  // Tags whose content is never useful text
+  private static final Set<String> DROPPED_ELEMENTS = Set.of("style", "script", "head", "xml");
+
+  // Dropped elements whose content is raw text, with no markup of its own
+  private static final Set<String> RAW_TEXT_ELEMENTS = Set.of("style", "script");
+
+  // Tags kept (without attributes other than spans) so the model still sees rows and paragraphs
+  private static final Set<String> KEPT_TAGS =
+      Set.of(
+          "table", "thead", "tbody", "tfoot", "tr", "td", "th", "p", "div", "br", "ul", "ol", "li",
+          "b", "strong");
+
+  // Paragraph-like tags dropped again when nothing but whitespace ended up inside them
+  private static final Set<String> EMPTY_DROPPED = Set.of("p", "div", "li", "b", "strong");
+
+  private static final Set<String> INLINE_TAGS = Set.of("b", "strong");
+
+  private static final Pattern SPAN = Pattern.compile("\\b(colspan|rowspan)\\s*=\\s*\"?(\\d+)");
+
+  // Start of quoted history or a signature (Outlook, Gmail, Thunderbird, Apple Mail)
+  private static final Pattern QUOTE_MARKER =
+      Pattern.compile(
+          "\\bid\\s*=\\s*\"?(divrplyfwdmsg|appendonsend|signature)\\b"
+              + "|\\bclass\\s*=\\s*\"?[^\">]*\\b(gmail_quote|gmail_signature|moz-signature"
+              + "|moz-cite-prefix|applemailsignature)\\b");
+
+  private static final String ORIGINAL_MESSAGE = "-----Original Message-----";
+
+  private final boolean enabled;
+  private final boolean stripQuoted;
+  private final DistributionSummary rawSize;
+  private final DistributionSummary normalizedSize;
+
+  public HtmlNormalizer(
+      MeterRegistry meterRegistry,
+      @Value("${parse.normalize.enabled:true}") boolean enabled,
+      @Value("${parse.normalize.strip-quoted:false}") boolean stripQuoted) {
+    this.enabled = enabled;
+    this.stripQuoted = stripQuoted;
+    this.rawSize = bodySize(meterRegistry, "raw");
+    this.normalizedSize = bodySize(meterRegistry, "normalized");
+  }
+
+  private static DistributionSummary bodySize(MeterRegistry meterRegistry, String stage) {
+    return DistributionSummary.builder("parse.body.size")
+        .description("Characters of email body before and after normalization")
+        .baseUnit("characters")
+        .tag("stage", stage)
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .register(meterRegistry);
+  }
+
+  String normalize(String body) {
+    rawSize.record(body.length());
+    if (!enabled) {
+      normalizedSize.record(body.length());
+      return body;
+    }
+    String normalized =
+        body.indexOf('<') >= 0 ? new Pass(body, stripQuoted, true).run() : normalizeText(body);
+    normalizedSize.record(normalized.length());
+    return normalized;
+  }
+
+  // The words of a body, for the search index: HTML is normalized as above but without any tags
+  // and with entities decoded, quoted history stays. Plain text is returned as it is.
+  static String text(String body) {
+    return body.indexOf('<') >= 0 ? new Pass(body, false, false).run() : body;
+  }
+
+  // Plain text: trailing spaces and runs of blank lines go, line structure stays
+  private String normalizeText(String text) {
+    StringBuilder out = new StringBuilder(text.length());
+    int blankLines = 0;
+    for (String line : text.split("\r?\n", -1)) {
+      if (stripQuoted
+          && (line.startsWith(">") || line.equals("-- ") || line.contains(ORIGINAL_MESSAGE))) {
+        if (!line.startsWith(">")) {
+          break;
+        }
+        continue;
+      }
+      String trimmed = line.replaceAll("[ \t\u00a0]+", " ").strip();
+      if (trimmed.isEmpty()) {
+        blankLines++;
+        continue;
+      }
+      if (out.length() > 0) {
+        out.append(blankLines > 0 ? "\n\n" : "\n");
+      }
+      blankLines = 0;
+      out.append(trimmed);
+    }
+    return out.toString();
+  }
+
+  // One normalization of one HTML body
+  private static final class Pass {
+    private final String html;
+    private final boolean stripQuoted;
+    // Off renders text only: kept tags become spaces and entities are decoded
+    private final boolean markup;
+    private final StringBuilder out;
+    // Output positions of open paragraph-like tags, to drop them again when they stay empty
+    private final Deque<int[]> open = new ArrayDeque<>();
+    private final Deque<String> openNames = new ArrayDeque<>();
+    private boolean pendingSpace;
+    // Whitespace right after a block tag carries no meaning
+    private boolean afterBlock = true;
+    private boolean quoted;
+    private int tableDepth;
+    // Start of the next "</body", -1 when there is none, -2 before the first search
+    private int bodyEnd = -2;
+
+    Pass(String html, boolean stripQuoted, boolean markup) {
+      this.html = html;
+      this.stripQuoted = stripQuoted;
+      this.markup = markup;
+      this.out = new StringBuilder(Math.min(html.length(), 1 << 16));
+    }
+
+    String run() {
+      int length = html.length();
+      int i = 0;
+      while (i < length) {
+        char c = html.charAt(i);
+        if (c == '<') {
+          i = tag(i);
+        } else if (c == '&' && html.startsWith("&nbsp;", i)) {
+          pendingSpace = true;
+          i += 6;
+        } else if (c == '&' && !markup) {
+          i = entity(i);
+        } else if (Character.isWhitespace(c) || c == '\u00a0') {
+          pendingSpace = true;
+          i++;
+        } else {
+          if (stripQuoted && !quoted && c == '-' && html.startsWith(ORIGINAL_MESSAGE, i)) {
+            quoted = true;
+          }
+          text(c);
+          i++;
+        }
+      }
+      return out.toString().strip();
+    }
+
+    private void text(char c) {
+      if (quoted && tableDepth == 0) {
+        return;
+      }
+      space();
+      out.append(c);
+      afterBlock = false;
+    }
+
+    // Handle the markup starting at i and return the index after it
+    private int tag(int i) {
+      if (html.startsWith("<!--", i)) {
+        int end = html.indexOf("-->", i + 4);
+        return end < 0 ? html.length() : end + 3;
+      }
+      int end = tagEnd(i);
+      if (i + 1 < html.length() && (html.charAt(i + 1) == '!' || html.charAt(i + 1) == '?')) {
+        return end;
+      }
+
+      boolean closing = i + 1 < html.length() && html.charAt(i + 1) == '/';
+      int nameStart = closing ? i + 2 : i + 1;
+      int nameEnd = nameStart;
+      while (nameEnd < end
+          && (Character.isLetterOrDigit(html.charAt(nameEnd)) || html.charAt(nameEnd) == ':')) {
+        nameEnd++;
+      }
+      if (nameEnd == nameStart) {
+        // A lone "<" in text
+        text('<');
+        return i + 1;
+      }
+      String name = html.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+
+      if (!closing && DROPPED_ELEMENTS.contains(name)) {
+        return skipDropped(name, end);
+      }
+      if (stripQuoted && !quoted && !closing) {
+        String attributes = html.substring(nameEnd, end).toLowerCase(Locale.ROOT);
+        if ("blockquote".equals(name) || QUOTE_MARKER.matcher(attributes).find()) {
+          quoted = true;
+        }
+      }
+      if ("table".equals(name)) {
+        tableDepth = Math.max(0, tableDepth + (closing ? -1 : 1));
+      }
+      if (!KEPT_TAGS.contains(name) || (quoted && tableDepth == 0 && !"table".equals(name))) {
+        return end;
+      }
+      if (closing) {
+        close(name);
+      } else {
+        openTag(name, html.substring(nameEnd, end));
+      }
+      return end;
+    }
+
+    private void space() {
+      if (pendingSpace && !afterBlock) {
+        out.append(' ');
+      }
+      pendingSpace = false;
+    }
+
+    // Inline tags keep the space before them, block tags swallow it
+    private void beforeTag(String name) {
+      if (INLINE_TAGS.contains(name)) {
+        space();
+      } else {
+        pendingSpace = false;
+        afterBlock = true;
+      }
+    }
+
+    private void openTag(String name, String attributes) {
+      if (!markup) {
+        pendingSpace = true;
+        return;
+      }
+      beforeTag(name);
+      int start = out.length();
+      out.append('<').append(name);
+      Matcher span = SPAN.matcher(attributes);
+      while (span.find()) {
+        out.append(' ')
+            .append(span.group(1).toLowerCase(Locale.ROOT))
+            .append('=')
+            .append(span.group(2));
+      }
+      out.append('>');
+      if (EMPTY_DROPPED.contains(name)) {
+        open.push(new int[] {start, out.length()});
+        openNames.push(name);
+      }
+    }
+
+    private void close(String name) {
+      if (!markup) {
+        pendingSpace = true;
+        return;
+      }
+      beforeTag(name);
+      if (EMPTY_DROPPED.contains(name) && name.equals(openNames.peek())) {
+        int[] position = open.pop();
+        openNames.pop();
+        if (out.length() == position[1]) {
+          // Nothing but whitespace inside, drop the element
+          out.setLength(position[0]);
+          return;
+        }
+      }
+      out.append("</").append(name).append('>');
+    }
+
+    // Decode the character reference at i and return the index after it. Unknown names and
+    // malformed references are text.
+    private int entity(int i) {
+      int end = html.indexOf(';', i);
+      if (end > i + 1 && end - i <= 10) {
+        String name = html.substring(i + 1, end);
+        int code =
+            switch (name) {
+              case "amp" -> '&';
+              case "lt" -> '<';
+              case "gt" -> '>';
+              case "quot" -> '"';
+              case "apos" -> '\'';
+              default -> codePoint(name);
+            };
+        if (code >= 0) {
+          if (Character.isWhitespace(code) || code == '\u00a0') {
+            pendingSpace = true;
+          } else {
+            for (char decoded : Character.toChars(code)) {
+              text(decoded);
+            }
+          }
+          return end + 1;
+        }
+      }
+      text('&');
+      return i + 1;
+    }
+
+    // The code point of a numeric reference such as #39 or #x27, or -1
+    private static int codePoint(String name) {
+      try {
+        int code =
+            name.startsWith("#x") || name.startsWith("#X")
+                ? Integer.parseInt(name.substring(2), 16)
+                : name.startsWith("#") ? Integer.parseInt(name.substring(1)) : -1;
+        return Character.isValidCodePoint(code) ? code : -1;
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    // Index after the dropped element whose start tag ends at from. Without its end tag before the
+    // end of the body, it is cut where it can no longer go on: for style and script where markup
+    // starts again (their content has none), for head at the start of the body, otherwise at the
+    // end of the body. An unclosed head or xml with neither is taken as empty, an unclosed style
+    // or script with no markup after it as running to the end.
+    private int skipDropped(String name, int from) {
+      if (bodyEnd == -2 || (bodyEnd >= 0 && bodyEnd < from)) {
+        bodyEnd = indexOfIgnoreCase("</body", from);
+      }
+      int limit = bodyEnd < 0 ? html.length() : bodyEnd;
+      int close = indexOfIgnoreCase("</" + name, from, limit);
+      if (close >= 0) {
+        return tagEnd(close);
+      }
+      if (RAW_TEXT_ELEMENTS.contains(name)) {
+        return nextMarkup(from);
+      }
+      int parentEnd = "head".equals(name) ? indexOfIgnoreCase("<body", from, limit) : -1;
+      if (parentEnd < 0) {
+        parentEnd = bodyEnd;
+      }
+      return parentEnd < 0 ? from : parentEnd;
+    }
+
+    // Index after the ">" closing the tag at i, skipping ">" inside quoted attribute values
+    private int tagEnd(int i) {
+      char quote = 0;
+      for (int j = i + 1; j < html.length(); j++) {
+        char c = html.charAt(j);
+        if (quote != 0) {
+          if (c == quote) {
+            quote = 0;
+          }
+        } else if (c == '"' || c == '\'') {
+          quote = c;
+        } else if (c == '>') {
+          return j + 1;
+        }
+      }
+      return html.length();
+    }
+
+    private int indexOfIgnoreCase(String needle, int from) {
+      return indexOfIgnoreCase(needle, from, html.length());
+    }
+
+    // Start of the next tag, end tag, comment or declaration, or the end of the text
+    private int nextMarkup(int from) {
+      for (int j = html.indexOf('<', from); j >= 0; j = html.indexOf('<', j + 1)) {
+        if (j + 1 < html.length()) {
+          char next = html.charAt(j + 1);
+          if (Character.isLetter(next) || next == '/' || next == '!') {
+            return j;
+          }
+        }
+      }
+      return html.length();
+    }
+
+    // Start of needle within [from, limit), or -1
+    private int indexOfIgnoreCase(String needle, int from, int limit) {
+      for (int j = from; j <= Math.min(limit, html.length()) - needle.length(); j++) {
+        if (html.regionMatches(true, j, needle, 0, needle.length())) {
+          return j;
+        }
+      }
+      return -1;
+    }
+  }
+}
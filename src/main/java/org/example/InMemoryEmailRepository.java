@@ -0,0 +1,383 @@
+package org.example;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+
+// Concurrent in-memory store: O(1) lookup of emails and trades by id, plus an index ordered by
+// creation time (newest first) so listing never has to sort. Every change is handed to the
+// persistence layer, which writes it behind the request, and then to the change listeners.
+@Repository
+public class InMemoryEmailRepository implements EmailRepository {
+
+  private static final Logger logger = LoggerFactory.getLogger(InMemoryEmailRepository.class);
+
+  private static final Comparator<CreatedKey> NEWEST_FIRST =
+      Comparator.comparing(CreatedKey::createdAt).thenComparingLong(CreatedKey::id).reversed();
+
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final AtomicLong nextTradeId = new AtomicLong(1);
+  private final Map<Long, Email> byId = new ConcurrentHashMap<>();
+  private final Map<Long, Trade> tradesById = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<CreatedKey, Email> byCreatedAt =
+      new ConcurrentSkipListMap<>(NEWEST_FIRST);
+  // Mock emails, kept in memory only; changed under the lock of the email's id
+  private final Set<Long> mockIds = ConcurrentHashMap.newKeySet();
+  private final EmailPersistence persistence;
+  private final List<EmailChangeListener> listeners;
+  // Changes are queued under the per-email lock, so they are queued in the order they were made,
+  // and handed to the listeners after the lock is released by whichever writer holds dispatching
+  private final Queue<Change> pendingChanges = new ConcurrentLinkedQueue<>();
+  private final ReentrantLock dispatching = new ReentrantLock();
+
+  public InMemoryEmailRepository(
+      EmailPersistence persistence, List<EmailChangeListener> listeners) {
+    this.persistence = persistence;
+    this.listeners = listeners;
+    // Recover stored emails before the repository is handed to anyone. Listeners learn about them
+    // as recovered, they were not changed.
+    long maxId = 0;
+    long maxTradeId = 0;
+    for (Email email : persistence.load()) {
+      byId.put(email.id(), email);
+      index(null, email);
+      maxId = Math.max(maxId, email.id());
+      for (Trade trade : tradesOf(email)) {
+        maxTradeId = Math.max(maxTradeId, trade.id());
+      }
+    }
+    nextId.set(maxId + 1);
+    nextTradeId.set(maxTradeId + 1);
+    for (Email email : byId.values()) {
+      for (EmailChangeListener listener : listeners) {
+        deliver(listener, () -> listener.emailRecovered(email));
+      }
+    }
+  }
+
+  @Override
+  public long nextEmailId() {
+    return nextId.getAndIncrement();
+  }
+
+  @Override
+  public long nextTradeId() {
+    return nextTradeId.getAndIncrement();
+  }
+
+  @Override
+  public void add(Email email) {
+    add(email, false);
+  }
+
+  @Override
+  public void addMock(Email email) {
+    add(email, true);
+  }
+
+  // Adding an email under an id that is taken replaces it as a new version, so an If-Match of
+  // the replaced one no longer applies
+  private void add(Email email, boolean mock) {
+    byId.compute(
+        email.id(),
+        (id, previous) -> {
+          Email added = previous != null ? email.withVersion(previous.version() + 1) : email;
+          changed(previous, added);
+          if (mock) {
+            mockIds.add(id);
+          } else {
+            mockIds.remove(id);
+            persistence.save(added);
+          }
+          return added;
+        });
+    dispatch();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return byId.isEmpty();
+  }
+
+  @Override
+  public int count() {
+    return byId.size();
+  }
+
+  @Override
+  public List<Email> findAll() {
+    return new ArrayList<>(byCreatedAt.values());
+  }
+
+  // Scans the emails within the filter's date bounds
+  @Override
+  public int count(EmailFilter filter) {
+    if (filter.isEmpty()) {
+      return count();
+    }
+    int count = 0;
+    for (Email email : newestFirst(filter, null).values()) {
+      if (filter.from() != null && email.createdAt().isBefore(filter.from())) {
+        break;
+      }
+      if (filter.matches(email)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public List<Email> find(EmailFilter filter, EmailCursor after, int limit) {
+    List<Email> page = new ArrayList<>(Math.min(limit, 1024));
+    for (Email email : newestFirst(filter, after).values()) {
+      if (filter.from() != null && email.createdAt().isBefore(filter.from())) {
+        break;
+      }
+      if (filter.matches(email)) {
+        page.add(email);
+        if (page.size() == limit) {
+          break;
+        }
+      }
+    }
+    return page;
+  }
+
+  // Emails from the later of the cursor (exclusive) and the upper date bound (inclusive) on
+  private NavigableMap<CreatedKey, Email> newestFirst(EmailFilter filter, EmailCursor after) {
+    CreatedKey cursorKey = after != null ? new CreatedKey(after.createdAt(), after.id()) : null;
+    CreatedKey upperKey = filter.to() != null ? new CreatedKey(filter.to(), Long.MAX_VALUE) : null;
+    if (upperKey != null && (cursorKey == null || NEWEST_FIRST.compare(upperKey, cursorKey) > 0)) {
+      return byCreatedAt.tailMap(upperKey, true);
+    }
+    return cursorKey != null ? byCreatedAt.tailMap(cursorKey, false) : byCreatedAt;
+  }
+
+  @Override
+  public Optional<Email> findById(Long id) {
+    return Optional.ofNullable(byId.get(id));
+  }
+
+  @Override
+  public Optional<Trade> findTradeById(Long id) {
+    return Optional.ofNullable(tradesById.get(id));
+  }
+
+  @Override
+  public Optional<Email> update(Long id, UnaryOperator<Email> merge) {
+    // compute() serializes concurrent updates of the same email without a global lock
+    Optional<Email> updated =
+        Optional.ofNullable(
+            byId.computeIfPresent(
+                id,
+                (key, existingEmail) -> {
+                  Email mergedEmail = merge.apply(existingEmail);
+                  if (mergedEmail == existingEmail) {
+                    return existingEmail;
+                  }
+                  mergedEmail = mergedEmail.withVersion(existingEmail.version() + 1);
+                  changed(existingEmail, mergedEmail);
+                  if (!mockIds.contains(key)) {
+                    persistence.save(mergedEmail);
+                  }
+                  return mergedEmail;
+                }));
+    dispatch();
+    return updated;
+  }
+
+  @Override
+  public Optional<Email> delete(Long id) {
+    Email[] removed = new Email[1];
+    byId.computeIfPresent(
+        id,
+        (key, existingEmail) -> {
+          changed(existingEmail, null);
+          if (!mockIds.remove(key)) {
+            persistence.delete(key);
+          }
+          removed[0] = existingEmail;
+          return null;
+        });
+    dispatch();
+    return Optional.ofNullable(removed[0]);
+  }
+
+  // Index the change and queue it for the listeners, called under its per-key lock (which also
+  // keeps the persistence queue in update order for each email). current is null on delete.
+  private void changed(Email previous, Email current) {
+    index(previous, current);
+    if (!listeners.isEmpty()) {
+      pendingChanges.add(new Change(previous, current));
+    }
+  }
+
+  // Keep the secondary indexes in line with the primary map
+  private void index(Email previous, Email current) {
+    if (previous != null) {
+      byCreatedAt.remove(new CreatedKey(previous.createdAt(), previous.id()));
+      for (Trade trade : tradesOf(previous)) {
+        tradesById.remove(trade.id());
+      }
+    }
+    if (current != null) {
+      byCreatedAt.put(new CreatedKey(current.createdAt(), current.id()), current);
+      for (Trade trade : tradesOf(current)) {
+        tradesById.put(trade.id(), trade);
+      }
+    }
+  }
+
+  // Called after a change, outside the map lock. One writer at a time drains the queue in order,
+  // the others leave their changes to it. The re-check after unlocking picks up a change queued
+  // just before the drainer let go.
+  private void dispatch() {
+    while (!pendingChanges.isEmpty() && dispatching.tryLock()) {
+      try {
+        Change change;
+        while ((change = pendingChanges.poll()) != null) {
+          Change current = change;
+          for (EmailChangeListener listener : listeners) {
+            deliver(listener, () -> listener.emailChanged(current.previous(), current.current()));
+          }
+        }
+      } finally {
+        dispatching.unlock();
+      }
+    }
+  }
+
+  // The change is already stored, one failing listener must not starve the others
+  private static void deliver(EmailChangeListener listener, Runnable notification) {
+    try {
+      notification.run();
+    } catch (RuntimeException e) {
+      logger.error("Change listener {} failed", listener.getClass().getSimpleName(), e);
+    }
+  }
+
+  // Trades without an id (not yet stored) are not indexed
+  private static List<Trade> tradesOf(Email email) {
+    return email.trades() == null
+        ? List.of()
+        : email.trades().stream().filter(trade -> trade.id() != null).toList();
+  }
+
+  // Helper method to generate mock data
+  @Override
+  public synchronized void initializeMockData() {
+    if (byId.isEmpty()) {
+      Random random = new Random();
+      String[] subjects = {
+        "Trade Confirmation - AAPL",
+        "FWD: Trade Details - MSFT",
+        "RE: Trading Instructions",
+        "New Trade Alert",
+        "Trade Settlement Notice"
+      };
+      String[] fromEmails = {
+        "trader1@bank.com",
+        "trader2@bank.com",
+        "ops@bank.com",
+        "settlement@bank.com",
+        "trading.desk@bank.com"
+      };
+      String[] isinCodes = {
+        "US0378331005", // AAPL
+        "US5949181045", // MSFT
+        "US02079K1079", // GOOGL
+        "US88160R1014", // TSLA
+        "US0231351067" // AMZN
+      };
+      String[] securityCodes = {
+        "AAPL", // Apple
+        "MSFT", // Microsoft
+        "GOOGL", // Google
+        "TSLA", // Tesla
+        "AMZN" // Amazon
+      };
+      String[] currencies = {"USD", "EUR", "GBP", "JPY", "CHF"};
+      String[] clientWays = {"BUY", "SELL"};
+
+      // Generate 50 mock emails
+      for (int i = 0; i < 50; i++) {
+        long emailId = nextEmailId();
+        LocalDateTime emailDate = LocalDateTime.now().minusDays(random.nextInt(30));
+
+        // Generate 1-3 trades per email
+        List<Trade> trades = new ArrayList<>();
+        int numTrades = random.nextInt(3) + 1;
+
+        for (int j = 0; j < numTrades; j++) {
+          boolean isSuccess = random.nextDouble() > 0.2; // 80% success rate
+
+          // Create trade with all required parameters in the correct order
+          Trade trade =
+              new Trade(
+                  nextTradeId(), // id
+                  emailId, // emailId
+                  isSuccess, // isSuccess
+                  isSuccess ? null : "Failed to process trade", // errorMessage
+                  isSuccess ? null : List.of(10100), // errorCodes
+                  clientWays[random.nextInt(clientWays.length)], // clientWay
+                  currencies[random.nextInt(currencies.length)], // currency
+                  isinCodes[random.nextInt(isinCodes.length)], // isinCode
+                  securityCodes[random.nextInt(securityCodes.length)], // securityCode
+                  random.nextDouble() * 100000.0, // notional
+                  "SCHEMA_" + (i + 1), // schemaIdentifier
+                  "EQUITY", // schemaType
+                  "1.0", // schemaVersion
+                  "HEADER_" + (i + 1), // solveHeader
+                  "CLIENT_" + (random.nextInt(5) + 1), // clientId
+                  "BROKER_" + (random.nextInt(5) + 1), // brokerId
+                  100.0 * (random.nextInt(10) + 1), // quantity
+                  50.0 + random.nextDouble() * 950.0, // price
+                  emailDate.format(DateTimeFormatter.ISO_DATE) + "T00:00", // tradeDate
+                  emailDate.plusDays(2).format(DateTimeFormatter.ISO_DATE)
+                      + "T00:00", // settlementDate
+                  emailDate // createdAt
+                  );
+
+          trades.add(trade);
+        }
+
+        addMock(
+            new Email(
+                emailId,
+                subjects[random.nextInt(subjects.length)] + " #" + (i + 1),
+                fromEmails[random.nextInt(fromEmails.length)],
+                new String[] {"recipient@bank.com"},
+                new String[] {"compliance@bank.com"},
+                "Mock email body content for email #" + (i + 1),
+                false,
+                trades,
+                random.nextBoolean(),
+                emailDate,
+                emailDate,
+                1));
+      }
+    }
+  }
+
+  private record CreatedKey(LocalDateTime createdAt, long id) {}
+
+  private record Change(Email previous, Email current) {}
+}
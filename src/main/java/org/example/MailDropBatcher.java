@@ -0,0 +1,107 @@
+package org.example;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+// Optional micro-batching in front of the AI Lab: requests are collected until batch.size of them
+// are waiting or the oldest has waited batch.linger, then sent as one call and the responses are
+// handed back to the waiting callers. Disabled, every request is sent on its own.
+@Component
+public class MailDropBatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(MailDropBatcher.class);
+
+  private final MailDropClient mailDropClient;
+  private final boolean enabled;
+  private final Sinks.Many<Pending> pending = Sinks.many().unicast().onBackpressureBuffer();
+  private final Disposable batches;
+
+  public MailDropBatcher(
+      MailDropClient mailDropClient,
+      @Value("${ai.lab.maildrop.batch.enabled:false}") boolean enabled,
+      @Value("${ai.lab.maildrop.batch.size:16}") int batchSize,
+      @Value("${ai.lab.maildrop.batch.linger:20ms}") Duration linger,
+      @Value("${ai.lab.maildrop.batch.max-in-flight:8}") int maxInFlight) {
+    this.mailDropClient = mailDropClient;
+    this.enabled = enabled;
+    this.batches =
+        enabled
+            ? pending
+                .asFlux()
+                // Batching and sending happen off the callers' threads
+                .publishOn(Schedulers.single())
+                .bufferTimeout(batchSize, linger)
+                // bufferTimeout does not wait for demand, park full batches until a slot is free
+                .onBackpressureBuffer()
+                .flatMap(this::sendBatch, maxInFlight)
+                .subscribe()
+            : null;
+  }
+
+  Mono<MailDropResponse> send(MailDropRequest request) {
+    if (!enabled) {
+      return mailDropClient.send(request);
+    }
+    return Mono.defer(
+        () -> {
+          Sinks.One<MailDropResponse> response = Sinks.one();
+          // Callers emit from many threads, the sink needs them serialized
+          synchronized (pending) {
+            pending.emitNext(new Pending(request, response), Sinks.EmitFailureHandler.FAIL_FAST);
+          }
+          return response.asMono();
+        });
+  }
+
+  private Mono<Void> sendBatch(List<Pending> batch) {
+    List<MailDropRequest> requests = batch.stream().map(Pending::request).toList();
+    return mailDropClient
+        .sendBatch(requests)
+        // An empty body would otherwise leave every caller of the batch waiting forever
+        .switchIfEmpty(
+            Mono.error(
+                () ->
+                    new IllegalStateException(
+                        "AI Lab returned no responses for a batch of " + batch.size())))
+        .doOnNext(
+            responses -> {
+              if (responses.size() != batch.size()) {
+                throw new IllegalStateException(
+                    "AI Lab returned "
+                        + responses.size()
+                        + " responses for a batch of "
+                        + batch.size());
+              }
+              for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).response().tryEmitValue(responses.get(i));
+              }
+            })
+        .doOnError(
+            e -> {
+              logger.warn("AI Lab batch of {} failed", batch.size());
+              batch.forEach(item -> item.response().tryEmitError(e));
+            })
+        .onErrorResume(e -> Mono.empty())
+        .then();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (batches != null) {
+      batches.dispose();
+    }
+  }
+
+  private record Pending(MailDropRequest request, Sinks.One<MailDropResponse> response) {}
+}
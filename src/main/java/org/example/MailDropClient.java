@@ -0,0 +1,142 @@
+package org.example;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+@Component
+public class MailDropClient {
+
+  private static final Logger logger = LoggerFactory.getLogger(MailDropClient.class);
+
+  private static final ParameterizedTypeReference<List<MailDropResponse>> MAIL_DROP_RESPONSES =
+      new ParameterizedTypeReference<>() {};
+
+  private final WebClient webClient;
+  private final String mailDropUrl;
+  private final String batchUrl;
+  private final CircuitBreaker circuitBreaker;
+  private final Bulkhead bulkhead;
+  private final PayloadLogger payloadLogger;
+
+  @Value("${ai.lab.maildrop.timeout:30s}")
+  private Duration timeout;
+
+  @Value("${ai.lab.maildrop.retry.max-attempts:3}")
+  private int maxAttempts;
+
+  @Value("${ai.lab.maildrop.retry.backoff:200ms}")
+  private Duration backoff;
+
+  @Value("${ai.lab.maildrop.retry.max-backoff:2s}")
+  private Duration maxBackoff;
+
+  public MailDropClient(
+      WebClient mailDropWebClient,
+      @Value("${ai.lab.maildrop.url}") String mailDropUrl,
+      @Value("${ai.lab.maildrop.batch.url:${ai.lab.maildrop.url}/batch}") String batchUrl,
+      CircuitBreaker mailDropCircuitBreaker,
+      Bulkhead mailDropBulkhead,
+      PayloadLogger payloadLogger) {
+    this.webClient = mailDropWebClient;
+    this.mailDropUrl = mailDropUrl;
+    this.batchUrl = batchUrl;
+    this.circuitBreaker = mailDropCircuitBreaker;
+    this.bulkhead = mailDropBulkhead;
+    this.payloadLogger = payloadLogger;
+  }
+
+  // Send request to AI Lab endpoint
+  Mono<MailDropResponse> send(MailDropRequest mailDropRequest) {
+    return resilient(post(mailDropUrl, mailDropRequest, MailDropResponse.class));
+  }
+
+  // Send several requests in one call, responses come back in request order
+  Mono<List<MailDropResponse>> sendBatch(List<MailDropRequest> mailDropRequests) {
+    return resilient(post(batchUrl, mailDropRequests, MAIL_DROP_RESPONSES));
+  }
+
+  // Each attempt is timed out and goes through the circuit breaker; transient failures are
+  // retried with jittered backoff inside one bulkhead permit
+  private <T> Mono<T> resilient(Mono<T> attempt) {
+    return attempt
+        .timeout(timeout)
+        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+        .retryWhen(
+            Retry.backoff(maxAttempts - 1, backoff)
+                .maxBackoff(maxBackoff)
+                .jitter(0.5)
+                .filter(MailDropClient::isTransient)
+                .doBeforeRetry(
+                    signal ->
+                        logger.warn(
+                            "Retrying AI Lab request (attempt {}): {}",
+                            signal.totalRetries() + 2,
+                            signal.failure().toString()))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+        .transformDeferred(BulkheadOperator.of(bulkhead))
+        .doOnError(e -> logger.error("AI Lab request failed", e))
+        .onErrorMap(e -> new RuntimeException("AI server error: " + e.getMessage(), e));
+  }
+
+  private <T> Mono<T> post(String url, Object body, ParameterizedTypeReference<T> responseType) {
+    return webClient
+        .post()
+        .uri(url)
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(body)
+        .retrieve()
+        .onStatus(
+            status -> status.is4xxClientError() || status.is5xxServerError(),
+            response ->
+                response
+                    .createException()
+                    .doOnNext(
+                        e -> {
+                          logger.error("AI Lab returned {}", e.getStatusCode());
+                          payloadLogger.logText(
+                              "AI Lab error response", e.getResponseBodyAsString());
+                        })
+                    .flatMap(Mono::error))
+        .bodyToMono(responseType)
+        .doOnNext(aiResponse -> payloadLogger.log("AI Lab response", aiResponse));
+  }
+
+  private <T> Mono<T> post(String url, Object body, Class<T> responseType) {
+    return post(url, body, ParameterizedTypeReference.forType(responseType));
+  }
+
+  // Failures worth another attempt: timeouts, connection problems, overload and gateway errors.
+  // An open circuit is not retried, it fails fast by design.
+  private static boolean isTransient(Throwable e) {
+    if (e instanceof TimeoutException || e instanceof WebClientRequestException) {
+      return true;
+    }
+    if (e instanceof WebClientResponseException response) {
+      HttpStatus status = HttpStatus.resolve(response.getStatusCode().value());
+      return status == HttpStatus.TOO_MANY_REQUESTS
+          || status == HttpStatus.BAD_GATEWAY
+          || status == HttpStatus.SERVICE_UNAVAILABLE
+          || status == HttpStatus.GATEWAY_TIMEOUT;
+    }
+    return false;
+  }
+}
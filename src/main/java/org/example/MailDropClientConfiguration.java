@@ -0,0 +1,141 @@
+package org.example;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+// Single pooled client for the AI Lab maildrop service, shared by every parse request
+@Configuration
+public class MailDropClientConfiguration {
+
+  @Value("${ai.lab.maildrop.url}")
+  private String mailDropUrl;
+
+  @Value("${ai.lab.maildrop.connect-timeout:5s}")
+  private Duration connectTimeout;
+
+  @Value("${ai.lab.maildrop.http2:true}")
+  private boolean http2;
+
+  @Value("${ai.lab.maildrop.pool.max-connections:100}")
+  private int maxConnections;
+
+  @Value("${ai.lab.maildrop.pool.pending-acquire-max-count:1000}")
+  private int pendingAcquireMaxCount;
+
+  @Value("${ai.lab.maildrop.pool.pending-acquire-timeout:30s}")
+  private Duration pendingAcquireTimeout;
+
+  @Value("${ai.lab.maildrop.pool.max-idle-time:30s}")
+  private Duration maxIdleTime;
+
+  @Value("${ai.lab.maildrop.pool.max-life-time:10m}")
+  private Duration maxLifeTime;
+
+  @Value("${ai.lab.maildrop.circuit-breaker.failure-rate-threshold:50}")
+  private float failureRateThreshold;
+
+  @Value("${ai.lab.maildrop.circuit-breaker.slow-call-duration:30s}")
+  private Duration slowCallDuration;
+
+  @Value("${ai.lab.maildrop.circuit-breaker.sliding-window-size:50}")
+  private int slidingWindowSize;
+
+  @Value("${ai.lab.maildrop.circuit-breaker.minimum-calls:20}")
+  private int minimumCalls;
+
+  @Value("${ai.lab.maildrop.circuit-breaker.wait-in-open-state:30s}")
+  private Duration waitInOpenState;
+
+  @Value("${ai.lab.maildrop.bulkhead.max-concurrent-calls:64}")
+  private int maxConcurrentCalls;
+
+  // Opens when too many recent calls failed or were slow, then fails fast until a few trial calls
+  // succeed. Rejected 4xx requests say nothing about the backend's health and are not counted.
+  // State is published as resilience4j.circuitbreaker.* with name=maildrop.
+  @Bean
+  public CircuitBreaker mailDropCircuitBreaker(MeterRegistry meterRegistry) {
+    CircuitBreakerRegistry registry =
+        CircuitBreakerRegistry.of(
+            CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(slowCallDuration)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumCalls)
+                .waitDurationInOpenState(waitInOpenState)
+                .permittedNumberOfCallsInHalfOpenState(5)
+                .recordException(
+                    e ->
+                        !(e instanceof WebClientResponseException response
+                            && response.getStatusCode().is4xxClientError()))
+                .build());
+    TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+    return registry.circuitBreaker("maildrop");
+  }
+
+  // Caps in-flight AI requests, calls over the limit are rejected instead of queued.
+  // State is published as resilience4j.bulkhead.* with name=maildrop.
+  @Bean
+  public Bulkhead mailDropBulkhead(MeterRegistry meterRegistry) {
+    BulkheadRegistry registry =
+        BulkheadRegistry.of(
+            BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+    TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+    return registry.bulkhead("maildrop");
+  }
+
+  // Bounded pool, metrics are published as reactor.netty.connection.provider.* with name=maildrop
+  @Bean(destroyMethod = "dispose")
+  public ConnectionProvider mailDropConnectionProvider() {
+    return ConnectionProvider.builder("maildrop")
+        .maxConnections(maxConnections)
+        .pendingAcquireMaxCount(pendingAcquireMaxCount)
+        .pendingAcquireTimeout(pendingAcquireTimeout)
+        .maxIdleTime(maxIdleTime)
+        .maxLifeTime(maxLifeTime)
+        .evictInBackground(maxIdleTime)
+        .metrics(true)
+        .build();
+  }
+
+  // No response timeout on the connection, MailDropClient times out each attempt on its own
+  // (ai.lab.maildrop.timeout)
+  @Bean
+  public WebClient mailDropWebClient(
+      WebClient.Builder builder, ConnectionProvider mailDropConnectionProvider) {
+    HttpClient httpClient =
+        HttpClient.create(mailDropConnectionProvider)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+            .option(ChannelOption.SO_KEEPALIVE, true)
+            .keepAlive(true);
+
+    // HTTP/2 is negotiated via ALPN, so it only applies to https endpoints
+    if (http2 && mailDropUrl.startsWith("https")) {
+      httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+    }
+
+    // Spring's builder already carries the application's compact JSON codecs
+    return builder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+  }
+}
@@ -0,0 +1,157 @@
+package org.example;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.mail.BodyPart;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Finds the text of an email without materializing the whole message: the MIME tree is walked
+// lazily, attachments are skipped without being decoded, and the chosen part is decoded straight
+// from its transfer-encoded stream into a buffer capped at parse.body.max-chars.
+@Component
+public class MimeBodyExtractor {
+
+  private static final Logger logger = LoggerFactory.getLogger(MimeBodyExtractor.class);
+
+  private final int maxChars;
+  private final Counter truncated;
+
+  public MimeBodyExtractor(
+      MeterRegistry meterRegistry, @Value("${parse.body.max-chars:1000000}") int maxChars) {
+    this.maxChars = maxChars;
+    this.truncated = meterRegistry.counter("parse.body.truncated");
+  }
+
+  // The first HTML part, otherwise the plain text parts joined, otherwise an empty string
+  BodyText extract(Part message) throws MessagingException, IOException {
+    Part html = findHtml(message);
+    Body body = new Body(maxChars);
+    if (html != null) {
+      decode(html, body);
+    } else {
+      appendPlainText(message, body);
+    }
+    if (body.truncated) {
+      truncated.increment();
+      logger.warn("Email body truncated to {} characters", maxChars);
+    }
+    return new BodyText(body.text.toString(), body.truncated);
+  }
+
+  // Apply the same cap to a body that was read without MIME, such as an MSG body
+  BodyText limit(String body) {
+    if (body.length() <= maxChars) {
+      return new BodyText(body, false);
+    }
+    truncated.increment();
+    logger.warn("Email body truncated to {} characters", maxChars);
+    return new BodyText(body.substring(0, maxChars), true);
+  }
+
+  private Part findHtml(Part part) throws MessagingException, IOException {
+    if (isAttachment(part)) {
+      return null;
+    }
+    if (part.isMimeType("text/html")) {
+      return part;
+    }
+    if (part.isMimeType("multipart/*")) {
+      Multipart multipart = (Multipart) part.getContent();
+      for (int i = 0; i < multipart.getCount(); i++) {
+        Part html = findHtml(multipart.getBodyPart(i));
+        if (html != null) {
+          return html;
+        }
+      }
+    } else if (part.isMimeType("message/rfc822")) {
+      // Inline forwarded message
+      return findHtml((Part) part.getContent());
+    }
+    return null;
+  }
+
+  private void appendPlainText(Part part, Body body) throws MessagingException, IOException {
+    if (body.truncated || isAttachment(part)) {
+      return;
+    }
+    if (part.isMimeType("text/plain")) {
+      decode(part, body);
+    } else if (part.isMimeType("multipart/*")) {
+      Multipart multipart = (Multipart) part.getContent();
+      for (int i = 0; i < multipart.getCount(); i++) {
+        appendPlainText(multipart.getBodyPart(i), body);
+      }
+    } else if (part.isMimeType("message/rfc822")) {
+      appendPlainText((Part) part.getContent(), body);
+    }
+  }
+
+  // Decode incrementally, and stop reading once the cap is reached
+  private void decode(Part part, Body body) throws MessagingException, IOException {
+    try (InputStream in = part.getInputStream();
+        Reader reader = new InputStreamReader(in, charsetOf(part))) {
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        int room = body.maxChars - body.text.length();
+        if (read > room) {
+          body.text.append(buffer, 0, room);
+          body.truncated = true;
+          return;
+        }
+        body.text.append(buffer, 0, read);
+      }
+    }
+  }
+
+  // Attachments are skipped, but a text/* part that only carries a file name is still body text
+  private static boolean isAttachment(Part part) throws MessagingException {
+    if (Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())) {
+      return true;
+    }
+    return part instanceof BodyPart
+        && part.getFileName() != null
+        && !part.isMimeType("text/*")
+        && !part.isMimeType("multipart/*");
+  }
+
+  private static Charset charsetOf(Part part) throws MessagingException {
+    try {
+      String charset = new ContentType(part.getContentType()).getParameter("charset");
+      if (charset != null && Charset.isSupported(MimeUtility.javaCharset(charset))) {
+        return Charset.forName(MimeUtility.javaCharset(charset));
+      }
+    } catch (ParseException | IllegalArgumentException e) {
+      logger.debug("Unreadable content type {}", part.getContentType());
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  // truncated when the text stops at parse.body.max-chars
+  record BodyText(String text, boolean truncated) {}
+
+  private static class Body {
+    private final int maxChars;
+    private final StringBuilder text = new StringBuilder();
+    private boolean truncated;
+
+    Body(int maxChars) {
+      this.maxChars = maxChars;
+    }
+  }
+}
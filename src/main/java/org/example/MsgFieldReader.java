@@ -0,0 +1,143 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.apache.poi.hmef.CompressedRTF;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.util.CodePageUtil;
+
+// Reads the few MAPI properties the parser needs straight from the OLE2 container of an Outlook
+// MSG file. Unlike MAPIMessage it never touches attachment or recipient storages and builds no
+// object model; each property is one "__substg1.0_<id><type>" stream in the root directory.
+final class MsgFieldReader {
+
+  private static final int SUBJECT = 0x0037;
+  private static final int SENDER_NAME = 0x0C1A;
+  private static final int SENDER_EMAIL_ADDRESS = 0x0C1F;
+  private static final int SENDER_SMTP_ADDRESS = 0x5D01;
+  private static final int BODY = 0x1000;
+  private static final int RTF_COMPRESSED = 0x1009;
+  private static final int BODY_HTML = 0x1013;
+  private static final int INTERNET_CPID = 0x3FDE;
+  private static final int MESSAGE_CODEPAGE = 0x3FFD;
+
+  private static final int PT_LONG = 0x0003;
+  private static final int PT_STRING8 = 0x001E;
+  private static final int PT_UNICODE = 0x001F;
+  private static final int PT_BINARY = 0x0102;
+
+  // Fixed size properties of the top level message: 32 byte header, then 16 byte entries
+  private static final String PROPERTIES = "__properties_version1.0";
+  private static final int PROPERTIES_HEADER = 32;
+
+  private MsgFieldReader() {}
+
+  record MsgFields(String from, String subject, String body) {}
+
+  static MsgFields read(InputStream content) throws IOException {
+    try (POIFSFileSystem fileSystem = new POIFSFileSystem(content)) {
+      DirectoryNode root = fileSystem.getRoot();
+      Charset charset = charsetOf(root);
+
+      String from = string(root, SENDER_SMTP_ADDRESS, charset);
+      if (from == null) {
+        String address = string(root, SENDER_EMAIL_ADDRESS, charset);
+        // Exchange senders carry an X.500 DN here instead of an SMTP address
+        from = address != null && address.contains("@") ? address : null;
+      }
+      if (from == null) {
+        from = string(root, SENDER_NAME, charset);
+      }
+
+      return new MsgFields(from, string(root, SUBJECT, charset), body(root, charset));
+    }
+  }
+
+  // HTML when present, then plain text, then what the RTF body holds (see RtfBody)
+  private static String body(DirectoryNode root, Charset charset) throws IOException {
+    byte[] html = bytes(root, BODY_HTML, PT_BINARY);
+    if (html != null) {
+      return trimNul(new String(html, charset));
+    }
+    String text = string(root, BODY_HTML, charset);
+    if (text == null) {
+      text = string(root, BODY, charset);
+    }
+    if (text != null) {
+      return text;
+    }
+    byte[] rtf = bytes(root, RTF_COMPRESSED, PT_BINARY);
+    if (rtf != null) {
+      return RtfBody.read(new CompressedRTF().decompress(new ByteArrayInputStream(rtf)));
+    }
+    return null;
+  }
+
+  private static String string(DirectoryNode directory, int id, Charset charset)
+      throws IOException {
+    byte[] unicode = bytes(directory, id, PT_UNICODE);
+    if (unicode != null) {
+      return trimNul(new String(unicode, StandardCharsets.UTF_16LE));
+    }
+    byte[] ansi = bytes(directory, id, PT_STRING8);
+    return ansi != null ? trimNul(new String(ansi, charset)) : null;
+  }
+
+  private static byte[] bytes(DirectoryNode directory, int id, int type) throws IOException {
+    String name = String.format("__substg1.0_%04X%04X", id, type);
+    if (!directory.hasEntry(name)) {
+      return null;
+    }
+    try (DocumentInputStream stream = directory.createDocumentInputStream(name)) {
+      return stream.readAllBytes();
+    }
+  }
+
+  // 8-bit strings and HTML bodies use the message code page, Windows-1252 when it is missing
+  private static Charset charsetOf(DirectoryNode root) throws IOException {
+    if (root.hasEntry(PROPERTIES)) {
+      try (DocumentInputStream stream = root.createDocumentInputStream(PROPERTIES)) {
+        ByteBuffer properties =
+            ByteBuffer.wrap(stream.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        Integer codePage = null;
+        for (int offset = PROPERTIES_HEADER; offset + 16 <= properties.limit(); offset += 16) {
+          int type = properties.getShort(offset) & 0xFFFF;
+          int id = properties.getShort(offset + 2) & 0xFFFF;
+          if (type != PT_LONG) {
+            continue;
+          }
+          if (id == INTERNET_CPID) {
+            codePage = properties.getInt(offset + 8);
+            break;
+          }
+          if (id == MESSAGE_CODEPAGE) {
+            codePage = properties.getInt(offset + 8);
+          }
+        }
+        if (codePage != null) {
+          try {
+            return Charset.forName(CodePageUtil.codepageToEncoding(codePage, true));
+          } catch (Exception e) {
+            // Unknown code page, use the default below
+          }
+        }
+      }
+    }
+    return Charset.forName("windows-1252");
+  }
+
+  private static String trimNul(String value) {
+    int end = value.length();
+    while (end > 0 && value.charAt(end - 1) == '\0') {
+      end--;
+    }
+    return value.substring(0, end);
+  }
+}
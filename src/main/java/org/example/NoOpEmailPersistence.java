@@ -0,0 +1,23 @@
+package org.example;
+
+import java.util.Collection;
+import java.util.List;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Keeps emails in memory only, everything is lost on restart
+@Component
+@ConditionalOnProperty(name = "persistence.type", havingValue = "none")
+public class NoOpEmailPersistence implements EmailPersistence {
+
+  @Override
+  public Collection<Email> load() {
+    return List.of();
+  }
+
+  @Override
+  public void save(Email email) {}
+
+  @Override
+  public void delete(long id) {}
+}
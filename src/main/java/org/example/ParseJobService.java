@@ -0,0 +1,114 @@
+package org.example;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+// Background parse jobs: a bounded worker pool runs the MIME parsing and the AI call, so the
+// upload request returns immediately and the number of concurrent AI calls is capped
+@Service
+public class ParseJobService {
+
+  private static final Logger logger = LoggerFactory.getLogger(ParseJobService.class);
+
+  private final EmailParseService emailParseService;
+  private final ThreadPoolExecutor executor;
+  private final Duration retention;
+  private final Map<String, ParseJob> jobs = new ConcurrentHashMap<>();
+
+  public ParseJobService(
+      EmailParseService emailParseService,
+      @Value("${parse.jobs.workers:8}") int workers,
+      @Value("${parse.jobs.queue-capacity:1000}") int queueCapacity,
+      @Value("${parse.jobs.retention:1h}") Duration retention) {
+    this.emailParseService = emailParseService;
+    this.retention = retention;
+    AtomicInteger threadCount = new AtomicInteger();
+    // A full queue rejects the submission instead of growing without bound
+    this.executor =
+        new ThreadPoolExecutor(
+            workers,
+            workers,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+              Thread thread = new Thread(runnable, "parse-job-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  // Queue a parse job, throws RejectedExecutionException when the queue is full
+  ParseJob submit(EmailRequest request) {
+    LocalDateTime now = LocalDateTime.now();
+    ParseJob job =
+        new ParseJob(UUID.randomUUID().toString(), ParseJobState.QUEUED, null, null, now, now);
+    jobs.put(job.id(), job);
+    try {
+      executor.execute(() -> run(job.id(), request));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(job.id());
+      throw e;
+    }
+    return job;
+  }
+
+  Optional<ParseJob> find(String id) {
+    return Optional.ofNullable(jobs.get(id));
+  }
+
+  private void run(String id, EmailRequest request) {
+    try {
+      update(id, ParseJobState.PARSING, null, null);
+      ParsedMessage message = emailParseService.parseMessage(request);
+
+      // The worker waits for the AI response, which is what bounds concurrent AI calls
+      update(id, ParseJobState.EXTRACTING, null, null);
+      Email email = emailParseService.extractTrades(message).block();
+
+      update(id, ParseJobState.COMPLETED, email, null);
+    } catch (Exception e) {
+      logger.error("Parse job " + id + " failed", e);
+      update(id, ParseJobState.FAILED, null, e.getMessage());
+    }
+  }
+
+  private void update(String id, ParseJobState state, Email email, String error) {
+    jobs.computeIfPresent(
+        id,
+        (key, job) ->
+            new ParseJob(key, state, email, error, job.submittedAt(), LocalDateTime.now()));
+  }
+
+  // Drop finished jobs once their result has been kept for the retention period
+  @Scheduled(fixedDelayString = "${parse.jobs.cleanup-interval:60000}")
+  void evictFinishedJobs() {
+    LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+    jobs.values()
+        .removeIf(
+            job ->
+                (job.state() == ParseJobState.COMPLETED || job.state() == ParseJobState.FAILED)
+                    && job.updatedAt().isBefore(cutoff));
+  }
+
+  @PreDestroy
+  void shutdown() {
+    executor.shutdownNow();
+  }
+}
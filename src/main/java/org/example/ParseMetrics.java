@@ -0,0 +1,104 @@
+package org.example;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.example.EmailParserApplication.Error;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.example.EmailParserApplication.Quote;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+// Parse pipeline instrumentation, published through Actuator (/actuator/prometheus):
+//   parse.stage{stage}        time per stage: decode, mime, msg, body, normalize, ai (AI Lab
+//                             calls only, cache hits are not timed), convert, store
+//   parse.in.flight           emails from the start of their AI round trip until stored
+//   parse.input.size          bytes of uploaded email before parsing
+//   ai.quote.errors{code}     AI error codes reported in Check.errors, once per AI Lab call
+@Component
+public class ParseMetrics {
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+  private final Map<Integer, Counter> errorCodes = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final DistributionSummary inputSize;
+
+  public ParseMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    meterRegistry.gauge("parse.in.flight", inFlight);
+    this.inputSize =
+        DistributionSummary.builder("parse.input.size")
+            .description("Size of uploaded emails before parsing")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+  }
+
+  <T> T time(String stage, Callable<T> work) throws Exception {
+    return stage(stage).recordCallable(work);
+  }
+
+  void time(String stage, Runnable work) {
+    stage(stage).record(work);
+  }
+
+  // Time the AI round trip from subscription to its result, and count the codes it reports
+  Mono<MailDropResponse> timeAi(Mono<MailDropResponse> response) {
+    return Mono.defer(
+        () -> {
+          Timer.Sample sample = Timer.start(meterRegistry);
+          return response.doOnNext(this::countErrors).doFinally(signal -> sample.stop(stage("ai")));
+        });
+  }
+
+  <T> Mono<T> inFlight(Mono<T> extraction) {
+    return Mono.defer(
+        () -> {
+          inFlight.incrementAndGet();
+          return extraction.doFinally(signal -> inFlight.decrementAndGet());
+        });
+  }
+
+  void inputSize(long bytes) {
+    inputSize.record(bytes);
+  }
+
+  private void countErrors(MailDropResponse response) {
+    if (response.quotes() == null) {
+      return;
+    }
+    for (Quote quote : response.quotes()) {
+      if (quote.check() == null || quote.check().errors() == null) {
+        continue;
+      }
+      for (Error error : quote.check().errors()) {
+        if (error.code() != null) {
+          errorCodes
+              .computeIfAbsent(
+                  error.code(),
+                  code ->
+                      Counter.builder("ai.quote.errors")
+                          .description("Errors reported by the AI Lab per quote")
+                          .tag("code", String.valueOf(code))
+                          .register(meterRegistry))
+              .increment();
+        }
+      }
+    }
+  }
+
+  private Timer stage(String stage) {
+    return stages.computeIfAbsent(
+        stage,
+        name ->
+            Timer.builder("parse.stage")
+                .description("Time spent per parse pipeline stage")
+                .tag("stage", name)
+                .register(meterRegistry));
+  }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Diagnostic logging of AI Lab payloads, kept off the hot path: nothing is serialized unless this
+// logger is at DEBUG (logging.level.org.example.PayloadLogger) and the payload is sampled, and
+// serialization stops once payload-log.max-chars characters have been written.
+@Component
+public class PayloadLogger {
+
+  private static final Logger logger = LoggerFactory.getLogger(PayloadLogger.class);
+
+  // Diagnostics only, the wire uses Spring's compact mapper
+  private final ObjectMapper mapper;
+  private final double sampleRate;
+  private final int maxChars;
+
+  public PayloadLogger(
+      ObjectMapper objectMapper,
+      @Value("${payload-log.sample-rate:1.0}") double sampleRate,
+      @Value("${payload-log.max-chars:4096}") int maxChars,
+      @Value("${payload-log.pretty:false}") boolean pretty) {
+    this.mapper = objectMapper.copy().configure(SerializationFeature.INDENT_OUTPUT, pretty);
+    this.mapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    this.sampleRate = sampleRate;
+    this.maxChars = maxChars;
+  }
+
+  boolean isEnabled() {
+    return logger.isDebugEnabled();
+  }
+
+  void log(String label, Object payload) {
+    if (!logger.isDebugEnabled() || !sampled()) {
+      return;
+    }
+    CappedWriter writer = new CappedWriter(maxChars);
+    try {
+      mapper.writeValue(writer, payload);
+    } catch (PayloadCapReached e) {
+      // Enough has been written
+    } catch (IOException e) {
+      logger.debug("Could not serialize {}", label, e);
+      return;
+    }
+    logger.debug("{}{}: {}", label, writer.truncated ? " (truncated)" : "", writer.text);
+  }
+
+  // Raw text payloads, such as error bodies, under the same cap
+  void logText(String label, String payload) {
+    if (!logger.isDebugEnabled() || !sampled() || payload == null) {
+      return;
+    }
+    boolean truncated = payload.length() > maxChars;
+    logger.debug(
+        "{}{}: {}",
+        label,
+        truncated ? " (truncated)" : "",
+        truncated ? payload.substring(0, maxChars) : payload);
+  }
+
+  private boolean sampled() {
+    return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  // Thrown to abandon serialization once the cap is reached
+  private static class PayloadCapReached extends IOException {
+    PayloadCapReached() {
+      super(null, null);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  private static class CappedWriter extends Writer {
+    private final StringBuilder text;
+    private final int maxChars;
+    private boolean truncated;
+
+    CappedWriter(int maxChars) {
+      this.maxChars = maxChars;
+      this.text = new StringBuilder(Math.min(maxChars, 1024));
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      int room = maxChars - text.length();
+      if (length > room) {
+        text.append(buffer, offset, room);
+        truncated = true;
+        throw new PayloadCapReached();
+      }
+      text.append(buffer, offset, length);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,106 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// The latest pending change of each email, handed in batches to a consumer on one background
+// thread. Adding never blocks: a change to an email that is still pending replaces it, so the
+// backlog is at most one change per email whatever the write rate, and the consumer only ever
+// sees the latest state. Emails are handed over in the order they first became pending.
+final class PendingEmailChanges {
+
+  private static final Logger logger = LoggerFactory.getLogger(PendingEmailChanges.class);
+
+  private final Map<Long, Change> pending = new ConcurrentHashMap<>();
+  private final Queue<Long> order = new ConcurrentLinkedQueue<>();
+  private final int batchSize;
+  private final Duration idleWait;
+  private final Consumer<List<Change>> consumer;
+  private final Thread thread;
+
+  private volatile boolean running = true;
+
+  // The consumer is called with up to batchSize changes, idleWait is how long the thread sleeps
+  // when there is nothing to do before it looks again (a new change wakes it right away)
+  PendingEmailChanges(
+      String threadName, int batchSize, Duration idleWait, Consumer<List<Change>> consumer) {
+    this.batchSize = batchSize;
+    this.idleWait = idleWait;
+    this.consumer = consumer;
+    this.thread = new Thread(this::run, threadName);
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  // email is null for a deleted email
+  void put(long id, Email email) {
+    // Only the change that makes the email pending queues its id, a later one just replaces it
+    if (pending.put(id, new Change(id, email)) == null) {
+      order.add(id);
+    }
+    LockSupport.unpark(thread);
+  }
+
+  // Puts back changes the consumer could not handle, to be handed over again. A change is only put
+  // back if the email has not changed again since, the newer change replaces it.
+  void requeue(List<Change> changes) {
+    for (Change change : changes) {
+      if (pending.putIfAbsent(change.id(), change) == null) {
+        order.add(change.id());
+      }
+    }
+  }
+
+  int size() {
+    return pending.size();
+  }
+
+  // Hands over what is still pending, then stops the thread
+  void close(Duration timeout) throws InterruptedException {
+    running = false;
+    LockSupport.unpark(thread);
+    thread.join(timeout.toMillis());
+  }
+
+  private void run() {
+    List<Change> batch = new ArrayList<>(batchSize);
+    while (running || !order.isEmpty()) {
+      Long id;
+      while (batch.size() < batchSize && (id = order.poll()) != null) {
+        Change change = pending.remove(id);
+        if (change != null) {
+          batch.add(change);
+        }
+      }
+      if (batch.isEmpty()) {
+        if (running) {
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(idleWait.toMillis()));
+        }
+        continue;
+      }
+      try {
+        consumer.accept(batch);
+      } catch (RuntimeException e) {
+        logger.error("{} could not handle {} changes", thread.getName(), batch.size(), e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  // The latest version of an email, or its removal when email is null
+  record Change(long id, Email email) {}
+}
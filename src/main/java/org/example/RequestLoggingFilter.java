@@ -0,0 +1,212 @@
+package org.example;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+// One line per request: method, path, status, latency, body size and a redacted prefix of the
+// body. The prefix is copied into a fixed buffer while the controller reads the body, so the body
+// is neither consumed here nor held in memory.
+@Component
+public class RequestLoggingFilter extends OncePerRequestFilter {
+
+  private static final Logger logger = LoggerFactory.getLogger(RequestLoggingFilter.class);
+
+  // Values of credential-like JSON fields, and long base64 runs such as encoded MSG files
+  private static final Pattern SECRET_FIELD =
+      Pattern.compile(
+          "(\"(?:password|secret|token|authorization|apiKey)\"\\s*:\\s*\")[^\"]*",
+          Pattern.CASE_INSENSITIVE);
+  private static final Pattern BASE64_RUN = Pattern.compile("[A-Za-z0-9+/=]{64,}");
+
+  private final boolean enabled;
+  private final int bodyPrefix;
+
+  public RequestLoggingFilter(
+      @Value("${request-log.enabled:true}") boolean enabled,
+      @Value("${request-log.body-prefix:256}") int bodyPrefix) {
+    this.enabled = enabled;
+    this.bodyPrefix = bodyPrefix;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !enabled;
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    long start = System.nanoTime();
+    PrefixCapturingRequest capturing =
+        new PrefixCapturingRequest(request, capturesBody(request) ? bodyPrefix : 0);
+    try {
+      chain.doFilter(capturing, response);
+    } finally {
+      if (request.isAsyncStarted()) {
+        // Parse endpoints complete later, log once the response is actually sent
+        request
+            .getAsyncContext()
+            .addListener(
+                new AsyncListener() {
+                  @Override
+                  public void onComplete(AsyncEvent event) {
+                    log(capturing, response, start);
+                  }
+
+                  @Override
+                  public void onTimeout(AsyncEvent event) {}
+
+                  @Override
+                  public void onError(AsyncEvent event) {}
+
+                  @Override
+                  public void onStartAsync(AsyncEvent event) {}
+                });
+      } else {
+        log(capturing, response, start);
+      }
+    }
+  }
+
+  private void log(PrefixCapturingRequest request, HttpServletResponse response, long start) {
+    if (!logger.isInfoEnabled()) {
+      return;
+    }
+    String query = request.getQueryString();
+    logger.info(
+        "{} {}{} {} {}ms {} bytes{}",
+        request.getMethod(),
+        request.getRequestURI(),
+        query != null ? "?" + query : "",
+        response.getStatus(),
+        (System.nanoTime() - start) / 1_000_000,
+        // Multipart bodies are read by the container, not through the wrapper
+        Math.max(request.bodyBytes, request.getContentLengthLong()),
+        request.prefixLength > 0 ? " body=" + redact(request.prefix()) : "");
+  }
+
+  // Only textual bodies are worth a prefix, uploads are logged by size
+  private static boolean capturesBody(HttpServletRequest request) {
+    String contentType = request.getContentType();
+    return contentType != null
+        && (contentType.startsWith("application/json")
+            || contentType.startsWith("text/")
+            || contentType.startsWith("application/x-www-form-urlencoded"));
+  }
+
+  private static String redact(String body) {
+    String redacted = SECRET_FIELD.matcher(body).replaceAll("$1***");
+    return BASE64_RUN.matcher(redacted).replaceAll("<base64>");
+  }
+
+  // Copies the first bytes of the body into a fixed buffer as they are read by the application
+  private static class PrefixCapturingRequest extends HttpServletRequestWrapper {
+    private final byte[] buffer;
+    private int prefixLength;
+    private long bodyBytes;
+    private ServletInputStream inputStream;
+    private BufferedReader reader;
+
+    PrefixCapturingRequest(HttpServletRequest request, int prefix) {
+      super(request);
+      this.buffer = new byte[prefix];
+    }
+
+    String prefix() {
+      String encoding = getCharacterEncoding();
+      Charset charset =
+          encoding != null && Charset.isSupported(encoding)
+              ? Charset.forName(encoding)
+              : StandardCharsets.UTF_8;
+      return new String(buffer, 0, prefixLength, charset) + (bodyBytes > prefixLength ? "..." : "");
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+      if (inputStream == null) {
+        inputStream = new CapturingInputStream(super.getInputStream());
+      }
+      return inputStream;
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+      if (reader == null) {
+        String encoding = getCharacterEncoding();
+        reader =
+            new BufferedReader(
+                new InputStreamReader(
+                    getInputStream(), encoding != null ? encoding : StandardCharsets.UTF_8.name()));
+      }
+      return reader;
+    }
+
+    private class CapturingInputStream extends ServletInputStream {
+      private final ServletInputStream delegate;
+
+      CapturingInputStream(ServletInputStream delegate) {
+        this.delegate = delegate;
+      }
+
+      @Override
+      public int read() throws IOException {
+        int b = delegate.read();
+        if (b >= 0) {
+          if (prefixLength < buffer.length) {
+            buffer[prefixLength++] = (byte) b;
+          }
+          bodyBytes++;
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int read = delegate.read(b, off, len);
+        if (read > 0) {
+          int copy = Math.min(read, buffer.length - prefixLength);
+          if (copy > 0) {
+            System.arraycopy(b, off, buffer, prefixLength, copy);
+            prefixLength += copy;
+          }
+          bodyBytes += read;
+        }
+        return read;
+      }
+
+      @Override
+      public boolean isFinished() {
+        return delegate.isFinished();
+      }
+
+      @Override
+      public boolean isReady() {
+        return delegate.isReady();
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+        delegate.setReadListener(readListener);
+      }
+    }
+  }
+}
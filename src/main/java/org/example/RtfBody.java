@@ -0,0 +1,231 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import org.apache.poi.util.CodePageUtil;
+
+// The body of an MSG file that only has PR_RTF_COMPRESSED, decompressed. Outlook wraps HTML mail
+// in RTF (\fromhtml1); that HTML is taken back out of the \*\htmltag groups and the text outside
+// \htmlrtf blocks, as MS-OXRTFEX describes. Any other RTF is reduced to its text, paragraphs become
+// line breaks. Fonts, colors, pictures and other destinations are dropped either way.
+final class RtfBody {
+
+  // Destinations without body text, also when they are not marked with \*
+  private static final Set<String> SKIPPED =
+      Set.of(
+          "fonttbl", "colortbl", "stylesheet", "info", "pict", "object", "header", "headerl",
+          "headerr", "footer", "footerl", "footerr", "listtable", "listoverridetable", "rsidtbl",
+          "generator", "xmlnstbl", "themedata", "colorschememapping", "datastore", "latentstyles",
+          "filetbl", "revtbl");
+
+  private RtfBody() {}
+
+  // HTML for encapsulated HTML, otherwise plain text
+  static String read(byte[] rtf) {
+    return new Reader(new String(rtf, StandardCharsets.ISO_8859_1)).run();
+  }
+
+  // What a group changes, inherited by the groups inside it
+  private static final class Group {
+    boolean skip;
+    boolean tag;
+    boolean htmlrtf;
+    int unicodeFallback = 1;
+    // Before the first control word, which can make the group a destination
+    boolean start = true;
+    boolean ignorable;
+
+    Group inner() {
+      Group inner = new Group();
+      inner.skip = skip;
+      inner.tag = tag;
+      inner.htmlrtf = htmlrtf;
+      inner.unicodeFallback = unicodeFallback;
+      return inner;
+    }
+  }
+
+  private static final class Reader {
+    private final String rtf;
+    private final StringBuilder out;
+    // \'hh bytes, decoded together so double-byte code pages come out right
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Deque<Group> outer = new ArrayDeque<>();
+    private Group group = new Group();
+    private Charset charset = Charset.forName("windows-1252");
+    private boolean html;
+    // Fallback characters still to skip after a Unicode character
+    private int fallback;
+    private int i;
+
+    Reader(String rtf) {
+      this.rtf = rtf;
+      this.out = new StringBuilder(rtf.length() / 2);
+    }
+
+    String run() {
+      while (i < rtf.length()) {
+        char c = rtf.charAt(i);
+        if (c == '{') {
+          outer.push(group);
+          group = group.inner();
+          i++;
+        } else if (c == '}') {
+          flush();
+          group = outer.isEmpty() ? new Group() : outer.pop();
+          i++;
+        } else if (c == '\\') {
+          control();
+        } else if (c == '\r' || c == '\n' || c == '\0') {
+          i++;
+        } else {
+          group.start = false;
+          character(c);
+          i++;
+        }
+      }
+      flush();
+      return out.toString().strip();
+    }
+
+    private boolean emits() {
+      return !group.skip && (group.tag || !(html && group.htmlrtf));
+    }
+
+    private void character(char c) {
+      if (fallback > 0) {
+        fallback--;
+        return;
+      }
+      if (emits()) {
+        flush();
+        out.append(c);
+      }
+    }
+
+    private void flush() {
+      if (bytes.size() > 0) {
+        out.append(new String(bytes.toByteArray(), charset));
+        bytes.reset();
+      }
+    }
+
+    // A control word or symbol at i
+    private void control() {
+      if (i + 1 >= rtf.length()) {
+        i++;
+        return;
+      }
+      char symbol = rtf.charAt(i + 1);
+      if (!isLetter(symbol)) {
+        i += 2;
+        symbol(symbol);
+        return;
+      }
+      int nameEnd = i + 1;
+      while (nameEnd < rtf.length() && isLetter(rtf.charAt(nameEnd))) {
+        nameEnd++;
+      }
+      String word = rtf.substring(i + 1, nameEnd);
+      int end = nameEnd;
+      if (end < rtf.length() && rtf.charAt(end) == '-') {
+        end++;
+      }
+      while (end < rtf.length() && Character.isDigit(rtf.charAt(end))) {
+        end++;
+      }
+      Integer parameter = null;
+      if (end > nameEnd && Character.isDigit(rtf.charAt(end - 1))) {
+        try {
+          parameter = Integer.parseInt(rtf.substring(nameEnd, end));
+        } catch (NumberFormatException e) {
+          // Out of range, taken as missing
+        }
+      }
+      if (end < rtf.length() && rtf.charAt(end) == ' ') {
+        end++;
+      }
+      i = end;
+      word(word, parameter);
+    }
+
+    private void symbol(char symbol) {
+      switch (symbol) {
+        case '\'' -> {
+          if (i + 2 <= rtf.length()) {
+            int value = hex(rtf.charAt(i), rtf.charAt(i + 1));
+            i += 2;
+            if (fallback > 0) {
+              fallback--;
+            } else if (value >= 0 && emits()) {
+              bytes.write(value);
+            }
+          }
+        }
+        case '*' -> group.ignorable = true;
+        case '\\', '{', '}' -> character(symbol);
+        case '~' -> character('\u00a0');
+        case '_' -> character('-');
+        case '\r', '\n' -> word("par", null);
+        default -> {
+          // \- (optional hyphen) and anything unknown
+        }
+      }
+    }
+
+    private void word(String word, Integer parameter) {
+      if (group.start) {
+        group.start = false;
+        if (group.ignorable && html && word.equals("htmltag")) {
+          group.tag = true;
+        } else if (group.ignorable || SKIPPED.contains(word)) {
+          group.skip = true;
+        }
+      }
+      switch (word) {
+        case "fromhtml" -> html = parameter != null && parameter == 1;
+        case "ansicpg" -> charset(parameter);
+        case "htmlrtf" -> group.htmlrtf = parameter == null || parameter != 0;
+        case "uc" -> group.unicodeFallback = parameter != null ? Math.max(0, parameter) : 1;
+        case "u" -> {
+          if (parameter != null) {
+            character((char) (parameter < 0 ? parameter + 65536 : parameter));
+            fallback = group.unicodeFallback;
+          }
+        }
+        case "par", "line" -> character('\n');
+        case "tab" -> character('\t');
+        case "bin" -> i = Math.min(rtf.length(), i + (parameter != null ? parameter : 0));
+        default -> {
+          // Formatting
+        }
+      }
+    }
+
+    private void charset(Integer codePage) {
+      if (codePage == null) {
+        return;
+      }
+      try {
+        charset = Charset.forName(CodePageUtil.codepageToEncoding(codePage, true));
+      } catch (Exception e) {
+        // Unknown code page, keep Windows-1252
+      }
+    }
+
+    private static boolean isLetter(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // The byte two hex digits stand for, or -1
+    private static int hex(char high, char low) {
+      int h = Character.digit(high, 16);
+      int l = Character.digit(low, 16);
+      return h < 0 || l < 0 ? -1 : h << 4 | l;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.example;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+// Fails the read as soon as more than maxSize bytes have been consumed from the wrapped stream
+public class SizeLimitedInputStream extends FilterInputStream {
+
+  private final long maxSize;
+  private long count;
+  private long mark;
+
+  public SizeLimitedInputStream(InputStream in, long maxSize) {
+    super(in);
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      consumed(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      consumed(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    consumed(skipped);
+    return skipped;
+  }
+
+  @Override
+  public synchronized void mark(int readLimit) {
+    super.mark(readLimit);
+    mark = count;
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    super.reset();
+    count = mark;
+  }
+
+  private void consumed(long n) {
+    count += n;
+    if (count > maxSize) {
+      throw new MaxUploadSizeExceededException(maxSize);
+    }
+  }
+}
@@ -0,0 +1,502 @@
+package org.example;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.example.PendingEmailChanges.Change;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// The fields of every trade that aggregations read, kept column by column so a scan touches a few
+// primitive arrays instead of the email object graph. Strings are dictionary encoded (code 0 is
+// no value), the trade date is an epoch day and each row has one byte of flags, about 30 bytes per
+// trade. Columns grow in chunks of 64k rows and can live off-heap (trade-store.off-heap). Rows of
+// changed or deleted emails are cleared and reused, and so are dictionary codes no row uses any
+// more, so a dictionary holds the values of live trades only. Changes are applied in batches by a
+// background writer, so a repository
+// writer never waits for a scan and aggregations lag writes by one batch.
+@Component
+public class TradeColumnStore implements EmailChangeListener {
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+  private static final int NO_DAY = Integer.MIN_VALUE;
+  private static final byte LIVE = 1;
+  private static final byte SUCCESS = 2;
+  // Upper bound on the groups of one aggregation
+  private static final int MAX_GROUPS = 1 << 22;
+
+  private final boolean offHeap;
+  // The writer applies batches of changes, readers are the aggregation scans
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final List<Chunk> chunks = new ArrayList<>();
+  private final Map<Long, int[]> rowsByEmail = new HashMap<>();
+  private final Dictionary currencies = new Dictionary();
+  private final Dictionary clients = new Dictionary();
+  private final Dictionary schemaTypes = new Dictionary();
+  private final Dictionary schemaVersions = new Dictionary();
+
+  // Guarded by the write lock
+  private int rowCount;
+  private int[] freeRows = new int[16];
+  private int freeCount;
+  private int minDay = Integer.MAX_VALUE;
+  private int maxDay = Integer.MIN_VALUE;
+  private volatile int liveRows;
+
+  private final PendingEmailChanges pending;
+
+  public TradeColumnStore(
+      MeterRegistry meterRegistry,
+      @Value("${trade-store.off-heap:false}") boolean offHeap,
+      @Value("${trade-store.batch-size:1000}") int batchSize) {
+    this.offHeap = offHeap;
+    this.pending =
+        new PendingEmailChanges(
+            "trade-store-writer", batchSize, Duration.ofMillis(200), this::apply);
+    meterRegistry.gauge("trade.store.rows", this, TradeColumnStore::liveRows);
+    meterRegistry.gauge("trade.store.pending", pending, PendingEmailChanges::size);
+
+    // Started here, the repository replays stored emails into the store while it is created
+    this.pending.start();
+  }
+
+  @Override
+  public void emailChanged(Email previous, Email current) {
+    pending.put(current != null ? current.id() : previous.id(), current);
+  }
+
+  // A batch of changes, one per email, under a single write lock
+  void apply(List<Change> batch) {
+    lock.writeLock().lock();
+    try {
+      for (Change change : batch) {
+        int[] oldRows = rowsByEmail.remove(change.id());
+        if (oldRows != null) {
+          for (int row : oldRows) {
+            clear(row);
+          }
+        }
+        Email email = change.email();
+        if (email != null && email.trades() != null && !email.trades().isEmpty()) {
+          int[] rows = new int[email.trades().size()];
+          for (int i = 0; i < rows.length; i++) {
+            rows[i] = add(email.trades().get(i));
+          }
+          rowsByEmail.put(change.id(), rows);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  int liveRows() {
+    return liveRows;
+  }
+
+  // Notional of successful trades with a trade date in [from, to] (both optional), per currency
+  // and grouping. Trades without a trade date are left out when grouping by day.
+  List<NotionalTotal> notional(TradeGrouping grouping, LocalDate from, LocalDate to) {
+    lock.readLock().lock();
+    try {
+      int low = low(from, to);
+      int high = to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE;
+      if (grouping == TradeGrouping.DAY) {
+        low = Math.max(low, minDay);
+        high = Math.min(high, maxDay);
+        if (low > high) {
+          return List.of();
+        }
+      }
+      if (grouping == TradeGrouping.CLIENT) {
+        return sorted(notionalByClient(low, high));
+      }
+      long groups = grouping == TradeGrouping.DAY ? (long) high - low + 1 : 1;
+      int currencyCount = currencies.size();
+      int cells =
+          checkedCells(groups, currencyCount, "days and currencies, narrow the trade date range");
+      double[] sums = new double[cells];
+      long[] counts = new long[cells];
+
+      for (int c = 0; c < chunks.size(); c++) {
+        Chunk chunk = chunks.get(c);
+        int rows = Math.min(CHUNK_ROWS, rowCount - (c << CHUNK_BITS));
+        for (int i = 0; i < rows; i++) {
+          if ((chunk.flags.get(i) & (LIVE | SUCCESS)) != (LIVE | SUCCESS)) {
+            continue;
+          }
+          int day = chunk.day.get(i);
+          double notional = chunk.notional.get(i);
+          if (day < low || day > high || Double.isNaN(notional)) {
+            continue;
+          }
+          int group = grouping == TradeGrouping.DAY ? day - low : 0;
+          int cell = group * currencyCount + chunk.currency.get(i);
+          sums[cell] += notional;
+          counts[cell]++;
+        }
+      }
+
+      List<NotionalTotal> totals = new ArrayList<>();
+      for (int cell = 0; cell < cells; cell++) {
+        if (counts[cell] == 0) {
+          continue;
+        }
+        String label =
+            grouping == TradeGrouping.DAY
+                ? LocalDate.ofEpochDay(low + cell / currencyCount).toString()
+                : null;
+        totals.add(
+            new NotionalTotal(
+                label, currencies.decode(cell % currencyCount), counts[cell], sums[cell]));
+      }
+      return sorted(totals);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Clients can be as many as emails, so only the client and currency pairs that occur in range
+  // get a group. Called under the read lock.
+  private List<NotionalTotal> notionalByClient(int low, int high) {
+    GroupTotals groups = new GroupTotals();
+    for (int c = 0; c < chunks.size(); c++) {
+      Chunk chunk = chunks.get(c);
+      int rows = Math.min(CHUNK_ROWS, rowCount - (c << CHUNK_BITS));
+      for (int i = 0; i < rows; i++) {
+        if ((chunk.flags.get(i) & (LIVE | SUCCESS)) != (LIVE | SUCCESS)) {
+          continue;
+        }
+        int day = chunk.day.get(i);
+        double notional = chunk.notional.get(i);
+        if (day < low || day > high || Double.isNaN(notional)) {
+          continue;
+        }
+        groups.add(((long) chunk.client.get(i) << 32) | chunk.currency.get(i), notional);
+      }
+    }
+    List<NotionalTotal> totals = new ArrayList<>(groups.size);
+    for (int slot = 0; slot < groups.keys.length; slot++) {
+      long key = groups.keys[slot];
+      if (key != GroupTotals.EMPTY) {
+        totals.add(
+            new NotionalTotal(
+                clients.decode((int) (key >>> 32)),
+                currencies.decode((int) key),
+                groups.counts[slot],
+                groups.sums[slot]));
+      }
+    }
+    return totals;
+  }
+
+  private static List<NotionalTotal> sorted(List<NotionalTotal> totals) {
+    totals.sort(
+        Comparator.comparing(
+                NotionalTotal::group, Comparator.nullsLast(Comparator.<String>naturalOrder()))
+            .thenComparing(
+                NotionalTotal::currency, Comparator.nullsLast(Comparator.naturalOrder())));
+    return totals;
+  }
+
+  // Share of successfully extracted trades per schema type and version, for trades with a trade
+  // date in [from, to] (both optional)
+  List<SchemaSuccessRate> successRates(LocalDate from, LocalDate to) {
+    lock.readLock().lock();
+    try {
+      int low = low(from, to);
+      int high = to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE;
+      int versionCount = schemaVersions.size();
+      int cells = checkedCells(schemaTypes.size(), versionCount, "schema types and versions");
+      long[] trades = new long[cells];
+      long[] successful = new long[cells];
+
+      for (int c = 0; c < chunks.size(); c++) {
+        Chunk chunk = chunks.get(c);
+        int rows = Math.min(CHUNK_ROWS, rowCount - (c << CHUNK_BITS));
+        for (int i = 0; i < rows; i++) {
+          byte flags = chunk.flags.get(i);
+          if ((flags & LIVE) == 0) {
+            continue;
+          }
+          int day = chunk.day.get(i);
+          if (day < low || day > high) {
+            continue;
+          }
+          int cell = chunk.schemaType.get(i) * versionCount + chunk.schemaVersion.get(i);
+          trades[cell]++;
+          if ((flags & SUCCESS) != 0) {
+            successful[cell]++;
+          }
+        }
+      }
+
+      List<SchemaSuccessRate> rates = new ArrayList<>();
+      for (int cell = 0; cell < cells; cell++) {
+        if (trades[cell] > 0) {
+          rates.add(
+              new SchemaSuccessRate(
+                  schemaTypes.decode(cell / versionCount),
+                  schemaVersions.decode(cell % versionCount),
+                  trades[cell],
+                  successful[cell],
+                  (double) successful[cell] / trades[cell]));
+        }
+      }
+      rates.sort(
+          Comparator.comparing(
+                  SchemaSuccessRate::schemaType,
+                  Comparator.nullsLast(Comparator.<String>naturalOrder()))
+              .thenComparing(
+                  SchemaSuccessRate::schemaVersion,
+                  Comparator.nullsLast(Comparator.naturalOrder())));
+      return rates;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Trades without a trade date (NO_DAY) are only in range when there is no range at all
+  private static int low(LocalDate from, LocalDate to) {
+    if (from != null) {
+      return (int) from.toEpochDay();
+    }
+    return to != null ? NO_DAY + 1 : NO_DAY;
+  }
+
+  private static int checkedCells(long groups, int values, String of) {
+    long cells = groups * values;
+    if (cells > MAX_GROUPS) {
+      throw new IllegalArgumentException("more than " + MAX_GROUPS + " groups of " + of);
+    }
+    return (int) cells;
+  }
+
+  private int add(Trade trade) {
+    int row;
+    if (freeCount > 0) {
+      row = freeRows[--freeCount];
+    } else {
+      row = rowCount++;
+      if (row >> CHUNK_BITS == chunks.size()) {
+        chunks.add(new Chunk(offHeap));
+      }
+    }
+    Chunk chunk = chunks.get(row >> CHUNK_BITS);
+    int i = row & (CHUNK_ROWS - 1);
+
+    LocalDate tradeDate = EmailSearchIndex.date(trade.tradeDate());
+    int day = tradeDate != null ? (int) tradeDate.toEpochDay() : NO_DAY;
+    if (tradeDate != null) {
+      minDay = Math.min(minDay, day);
+      maxDay = Math.max(maxDay, day);
+    }
+    chunk.notional.put(i, notional(trade));
+    chunk.day.put(i, day);
+    chunk.currency.put(
+        i,
+        currencies.encode(
+            trade.currency() != null ? trade.currency().trim().toUpperCase(Locale.ROOT) : null));
+    chunk.client.put(i, clients.encode(trimmed(trade.clientId())));
+    chunk.schemaType.put(i, schemaTypes.encode(trimmed(trade.schemaType())));
+    chunk.schemaVersion.put(i, schemaVersions.encode(trimmed(trade.schemaVersion())));
+    chunk.flags.put(i, (byte) (LIVE | (trade.isSuccess() ? SUCCESS : 0)));
+    liveRows++;
+    return row;
+  }
+
+  private void clear(int row) {
+    Chunk chunk = chunks.get(row >> CHUNK_BITS);
+    int i = row & (CHUNK_ROWS - 1);
+    currencies.release(chunk.currency.get(i));
+    clients.release(chunk.client.get(i));
+    schemaTypes.release(chunk.schemaType.get(i));
+    schemaVersions.release(chunk.schemaVersion.get(i));
+    chunk.flags.put(i, (byte) 0);
+    if (freeCount == freeRows.length) {
+      freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+    }
+    freeRows[freeCount++] = row;
+    liveRows--;
+  }
+
+  @PreDestroy
+  void shutdown() throws InterruptedException {
+    pending.close(Duration.ofSeconds(30));
+  }
+
+  // The extracted notional, or quantity times price when the AI did not return one
+  private static double notional(Trade trade) {
+    if (trade.notional() != null) {
+      return trade.notional();
+    }
+    if (trade.quantity() != null && trade.price() != null) {
+      return trade.quantity() * trade.price();
+    }
+    return Double.NaN;
+  }
+
+  private static String trimmed(String value) {
+    return value != null ? value.trim() : null;
+  }
+
+  // CHUNK_ROWS rows of every column, either in arrays or in native-order direct buffers
+  private static final class Chunk {
+    final DoubleBuffer notional;
+    final IntBuffer day;
+    final IntBuffer currency;
+    final IntBuffer client;
+    final IntBuffer schemaType;
+    final IntBuffer schemaVersion;
+    final ByteBuffer flags;
+
+    Chunk(boolean offHeap) {
+      notional =
+          offHeap
+              ? direct(Double.BYTES).asDoubleBuffer()
+              : DoubleBuffer.wrap(new double[CHUNK_ROWS]);
+      day = ints(offHeap);
+      currency = ints(offHeap);
+      client = ints(offHeap);
+      schemaType = ints(offHeap);
+      schemaVersion = ints(offHeap);
+      flags = offHeap ? direct(1) : ByteBuffer.wrap(new byte[CHUNK_ROWS]);
+    }
+
+    private static IntBuffer ints(boolean offHeap) {
+      return offHeap ? direct(Integer.BYTES).asIntBuffer() : IntBuffer.wrap(new int[CHUNK_ROWS]);
+    }
+
+    private static ByteBuffer direct(int bytesPerRow) {
+      return ByteBuffer.allocateDirect(CHUNK_ROWS * bytesPerRow).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  // Codes count the rows that use them. A code no row uses is freed and handed out again, so the
+  // dictionary only holds values of live trades. Blank values share code 0 with null.
+  private static final class Dictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>(List.of(""));
+    private int[] uses = new int[16];
+    private int[] freeCodes = new int[16];
+    private int freeCount;
+
+    int encode(String value) {
+      if (value == null || value.isEmpty()) {
+        return 0;
+      }
+      Integer code = codes.get(value);
+      if (code == null) {
+        if (freeCount > 0) {
+          code = freeCodes[--freeCount];
+          values.set(code, value);
+        } else {
+          code = values.size();
+          values.add(value);
+          if (code == uses.length) {
+            uses = Arrays.copyOf(uses, code * 2);
+          }
+        }
+        codes.put(value, code);
+      }
+      uses[code]++;
+      return code;
+    }
+
+    void release(int code) {
+      if (code == 0 || --uses[code] > 0) {
+        return;
+      }
+      codes.remove(values.get(code));
+      values.set(code, null);
+      if (freeCount == freeCodes.length) {
+        freeCodes = Arrays.copyOf(freeCodes, freeCount * 2);
+      }
+      freeCodes[freeCount++] = code;
+    }
+
+    String decode(int code) {
+      return code == 0 ? null : values.get(code);
+    }
+
+    // Highest code + 1, freed codes included
+    int size() {
+      return values.size();
+    }
+  }
+
+  // Notional sum and trade count per group key, open addressing over the keys that occur
+  private static final class GroupTotals {
+    static final long EMPTY = -1;
+
+    long[] keys = filled(1024);
+    double[] sums = new double[1024];
+    long[] counts = new long[1024];
+    int size;
+
+    void add(long key, double notional) {
+      int slot = slot(keys, key);
+      if (keys[slot] == EMPTY) {
+        if (size == MAX_GROUPS) {
+          throw new IllegalArgumentException(
+              "more than " + MAX_GROUPS + " clients and currencies, narrow the trade date range");
+        }
+        keys[slot] = key;
+        size++;
+        if (size * 2 > keys.length) {
+          grow();
+          slot = slot(keys, key);
+        }
+      }
+      sums[slot] += notional;
+      counts[slot]++;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      double[] oldSums = sums;
+      long[] oldCounts = counts;
+      keys = filled(oldKeys.length * 2);
+      sums = new double[keys.length];
+      counts = new long[keys.length];
+      for (int old = 0; old < oldKeys.length; old++) {
+        if (oldKeys[old] != EMPTY) {
+          int slot = slot(keys, oldKeys[old]);
+          keys[slot] = oldKeys[old];
+          sums[slot] = oldSums[old];
+          counts[slot] = oldCounts[old];
+        }
+      }
+    }
+
+    // The key's slot, or the empty one where it belongs
+    private static int slot(long[] keys, long key) {
+      int mask = keys.length - 1;
+      int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private static long[] filled(int length) {
+      long[] keys = new long[length];
+      Arrays.fill(keys, EMPTY);
+      return keys;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Writes the trades of matching emails straight to a response stream, newest email first. Emails
+// are read one keyset page at a time, so memory stays at a page of emails and the writer buffer
+// however many trades are exported. Emails created after the export started sort before its
+// cursor and are not included.
+@Service
+public class TradeExportService {
+
+  private static final List<String> CSV_COLUMNS =
+      List.of(
+          "emailId",
+          "fromEmail",
+          "tradeId",
+          "isSuccess",
+          "errorMessage",
+          "errorCodes",
+          "clientWay",
+          "currency",
+          "isinCode",
+          "securityCode",
+          "notional",
+          "schemaIdentifier",
+          "schemaType",
+          "schemaVersion",
+          "clientId",
+          "brokerId",
+          "quantity",
+          "price",
+          "tradeDate",
+          "settlementDate",
+          "createdAt");
+
+  private final EmailRepository emailRepository;
+  private final ObjectWriter tradeWriter;
+  private final int pageSize;
+
+  public TradeExportService(
+      EmailRepository emailRepository,
+      ObjectMapper objectMapper,
+      @Value("${trade-export.page-size:500}") int pageSize) {
+    this.emailRepository = emailRepository;
+    // One object per line, buffered by the export writer rather than flushed per trade, and the
+    // stream belongs to the caller
+    this.tradeWriter =
+        objectMapper
+            .writerFor(Trade.class)
+            .without(SerializationFeature.INDENT_OUTPUT)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+            .withRootValueSeparator("\n");
+    this.pageSize = pageSize;
+  }
+
+  // Returns the number of trades written. Does not close the stream.
+  long export(TradeExportQuery query, TradeExportFormat format, OutputStream out)
+      throws IOException {
+    Writer writer =
+        new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    SequenceWriter ndjson = null;
+    if (format == TradeExportFormat.CSV) {
+      writer.write(String.join(",", CSV_COLUMNS));
+      writer.write("\r\n");
+    } else {
+      ndjson = tradeWriter.writeValues(writer);
+    }
+
+    long written = 0;
+    EmailCursor after = null;
+    List<Email> page;
+    do {
+      page = emailRepository.find(query.emails(), after, pageSize);
+      for (Email email : page) {
+        if (email.trades() == null) {
+          continue;
+        }
+        for (Trade trade : email.trades()) {
+          if (!query.matches(trade)) {
+            continue;
+          }
+          if (ndjson == null) {
+            writeCsv(writer, email, trade);
+          } else {
+            ndjson.write(trade);
+          }
+          written++;
+        }
+      }
+      if (!page.isEmpty()) {
+        Email last = page.get(page.size() - 1);
+        after = new EmailCursor(last.createdAt(), last.id());
+      }
+    } while (page.size() == pageSize);
+    if (ndjson != null) {
+      // Values are separated by line breaks, the last line needs one too
+      ndjson.close();
+      if (written > 0) {
+        writer.write('\n');
+      }
+    }
+    writer.flush();
+    return written;
+  }
+
+  private static void writeCsv(Writer writer, Email email, Trade trade) throws IOException {
+    Object[] values = {
+      email.id(),
+      email.fromEmail(),
+      trade.id(),
+      trade.isSuccess(),
+      trade.errorMessage(),
+      trade.errorCodes() != null
+          ? trade.errorCodes().stream().map(String::valueOf).collect(Collectors.joining(" "))
+          : null,
+      trade.clientWay(),
+      trade.currency(),
+      trade.isinCode(),
+      trade.securityCode(),
+      trade.notional(),
+      trade.schemaIdentifier(),
+      trade.schemaType(),
+      trade.schemaVersion(),
+      trade.clientId(),
+      trade.brokerId(),
+      trade.quantity(),
+      trade.price(),
+      trade.tradeDate(),
+      trade.settlementDate(),
+      trade.createdAt()
+    };
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      if (values[i] != null) {
+        writeCsvField(writer, values[i].toString());
+      }
+    }
+    writer.write("\r\n");
+  }
+
+  // RFC 4180: fields with a separator, quote or line break are quoted, quotes are doubled
+  private static void writeCsvField(Writer writer, String value) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    writer.write(value.replace("\"", "\"\""));
+    writer.write('"');
+  }
+}
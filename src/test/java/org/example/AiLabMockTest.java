@@ -0,0 +1,96 @@
+package org.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+// The application against its own built-in AI Lab mock, configured through ai.lab.mock.* the way a
+// load test would: every call is slow and fails, so the client's retries and the error the upload
+// gets back come from the mock's latency, error rate and error status
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT,
+    properties = {
+      "persistence.type=none",
+      "ai.lab.mock.latency.profile=fixed",
+      "ai.lab.mock.latency.mean=300ms",
+      "ai.lab.mock.error-rate=1",
+      "ai.lab.mock.error-status=503",
+      "ai.lab.maildrop.timeout=5s",
+      "ai.lab.maildrop.retry.max-attempts=3",
+      "ai.lab.maildrop.retry.backoff=10ms",
+      "ai.lab.maildrop.retry.max-backoff=50ms"
+    })
+class AiLabMockTest {
+
+  private static final MailDropRequest REQUEST =
+      new MailDropRequest(
+          "aggregated_email_model",
+          "id-1",
+          "ops@bank.com",
+          new String[] {"allocations@bank.com"},
+          new String[0],
+          "Allocation",
+          "Buy 100 AAPL",
+          "2024-01-01T09:00");
+
+  @Autowired MailDropClient mailDropClient;
+  @Autowired CircuitBreaker mailDropCircuitBreaker;
+  @Autowired TestRestTemplate restTemplate;
+
+  // The client is wired to ai.lab.maildrop.url when the context starts, so the port is known before
+  @DynamicPropertySource
+  static void serverPort(DynamicPropertyRegistry registry) throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    registry.add("server.port", () -> port);
+    registry.add("ai.lab.maildrop.url", () -> "http://localhost:" + port + "/ai-lab/maildrop");
+  }
+
+  @Test
+  void retriesTheMockErrorStatusAfterItsLatency() {
+    long failedBefore = mailDropCircuitBreaker.getMetrics().getNumberOfFailedCalls();
+    long start = System.nanoTime();
+
+    RuntimeException error =
+        assertThrows(RuntimeException.class, () -> mailDropClient.send(REQUEST).block());
+
+    // Three attempts, each answered with error-status after the mock's latency
+    assertThat(error.getCause()).isInstanceOf(WebClientResponseException.class);
+    assertThat(((WebClientResponseException) error.getCause()).getStatusCode().value())
+        .isEqualTo(503);
+    assertThat(mailDropCircuitBreaker.getMetrics().getNumberOfFailedCalls() - failedBefore)
+        .isEqualTo(3);
+    assertThat(Duration.ofNanos(System.nanoTime() - start))
+        .isGreaterThanOrEqualTo(Duration.ofMillis(900));
+  }
+
+  @Test
+  void uploadFailsWithBadGatewayWhenTheMockFails() {
+    ResponseEntity<String> response =
+        restTemplate.postForEntity(
+            "/api/parse?cache=false",
+            new EmailRequest(
+                "From: ops@bank.com\r\nTo: allocations@bank.com\r\nSubject: Allocation\r\n\r\n"
+                    + "Buy 100 AAPL at 180.5\r\n",
+                "eml"),
+            String.class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_GATEWAY);
+  }
+}
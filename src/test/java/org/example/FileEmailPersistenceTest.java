@@ -0,0 +1,102 @@
+package org.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+// The write-behind log: what a failed compaction leaves behind, and that everything saved is loaded
+// again by the next instance
+class FileEmailPersistenceTest {
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  @TempDir Path directory;
+
+  @Test
+  void keepsWritingWhenCompactionFails() throws Exception {
+    // Compaction writes the new snapshot next to the old one, a directory in its way fails it
+    Path blocked = Files.createDirectory(directory.resolve("emails.snapshot.tmp"));
+    FileEmailPersistence persistence = persistence();
+    persistence.load();
+
+    for (long id = 1; id <= 4; id++) {
+      persistence.save(email(id));
+    }
+    // Compaction was due after the second email and failed each time, the log still took all four
+    awaitTrue(() -> logLines() == 4);
+    assertThat(Files.exists(directory.resolve("emails.snapshot"))).isFalse();
+
+    Files.delete(blocked);
+    persistence.save(email(5));
+    awaitTrue(() -> Files.exists(directory.resolve("emails.snapshot")));
+    persistence.shutdown();
+
+    assertThat(persistence().load()).extracting(Email::id).containsExactly(1L, 2L, 3L, 4L, 5L);
+  }
+
+  @Test
+  void loadsTheLatestVersionAndDropsDeletedEmails() throws Exception {
+    FileEmailPersistence persistence = persistence();
+    persistence.load();
+    persistence.save(email(1));
+    persistence.save(email(2));
+    persistence.save(email(1).withVersion(2));
+    persistence.delete(2);
+    persistence.shutdown();
+
+    assertThat(persistence().load())
+        .singleElement()
+        .satisfies(email -> assertThat(email.version()).isEqualTo(2));
+  }
+
+  private FileEmailPersistence persistence() throws IOException {
+    return new FileEmailPersistence(
+        objectMapper, new SimpleMeterRegistry(), directory, 1, Duration.ofMillis(10), 2, false);
+  }
+
+  private long logLines() {
+    try {
+      Path log = directory.resolve("emails.log");
+      return Files.exists(log) ? Files.readAllLines(log).size() : 0;
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime()).as("condition not met within 10s").isLessThan(deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static Email email(long id) {
+    LocalDateTime createdAt = LocalDateTime.of(2024, 1, 1, 9, 0);
+    return new Email(
+        id,
+        "Allocation " + id,
+        "ops@bank.com",
+        new String[] {"allocations@bank.com"},
+        new String[0],
+        "Buy 100 AAPL",
+        false,
+        List.of(),
+        false,
+        createdAt,
+        createdAt,
+        1);
+  }
+}
@@ -0,0 +1,125 @@
+package org.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+// HTML normalization keeps the text trades are read from. Every page of the HTML corpus (shared
+// with the benchmarks) has an .expected file with the tokens that must survive, one per line.
+class HtmlNormalizerTest {
+
+  static Stream<Arguments> pages() throws IOException, URISyntaxException {
+    try (Stream<Path> files = Files.list(corpus())) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(name -> name.endsWith(".expected"))
+          .map(name -> name.substring(0, name.length() - ".expected".length()))
+          .sorted()
+          .flatMap(page -> Stream.of(Arguments.of(page, false), Arguments.of(page, true)))
+          .toList()
+          .stream();
+    }
+  }
+
+  @ParameterizedTest(name = "{0}, stripQuoted={1}")
+  @MethodSource("pages")
+  void keepsTheTradeDataOfCorpusPages(String page, boolean stripQuoted)
+      throws IOException, URISyntaxException {
+    Path corpus = corpus();
+    String html = Files.readString(corpus.resolve(page + ".html"));
+    String normalized = normalizer(stripQuoted).normalize(html);
+
+    assertThat(normalized.length()).isLessThan(html.length());
+    for (String token : Files.readAllLines(corpus.resolve(page + ".expected"))) {
+      if (!token.isBlank()) {
+        assertThat(normalized).contains(token.strip());
+      }
+    }
+  }
+
+  @Test
+  void dropsClosedStyleAndScript() {
+    String normalized =
+        normalizer(false)
+            .normalize(
+                "<html><head><style>p { color: red }</STYLE></head><body>"
+                    + "<script>track()</script><p>Buy 100 AAPL</p></body></html>");
+
+    assertThat(normalized).contains("Buy 100 AAPL").doesNotContain("color", "track");
+  }
+
+  @Test
+  void unclosedStyleEndsWhereMarkupStartsAgain() {
+    String normalized =
+        normalizer(false)
+            .normalize(
+                "<body><div><style>p { color: red }</div>"
+                    + "<table><tr><td>Buy 100 AAPL</td></tr></table></body>");
+
+    assertThat(normalized).contains("Buy 100 AAPL").doesNotContain("color");
+  }
+
+  @Test
+  void unclosedScriptEndsWhereMarkupStartsAgain() {
+    String normalized =
+        normalizer(false).normalize("<body><script>track()<p>Sell 50 MSFT</p></body>");
+
+    assertThat(normalized).contains("Sell 50 MSFT").doesNotContain("track");
+  }
+
+  @Test
+  void unclosedHeadEndsAtTheBody() {
+    String normalized =
+        normalizer(false)
+            .normalize(
+                "<html><head><title>Allocation</title><body><p>Buy 100 AAPL</p></body></html>");
+
+    assertThat(normalized).contains("Buy 100 AAPL").doesNotContain("Allocation");
+  }
+
+  @Test
+  void unclosedXmlWithoutABodyIsTakenAsEmpty() {
+    String normalized = normalizer(false).normalize("<xml><p>Buy 100 AAPL</p><p>at 180.5</p>");
+
+    assertThat(normalized).contains("Buy 100 AAPL", "at 180.5");
+  }
+
+  @Test
+  void unclosedStyleAtTheEndRunsToTheEnd() {
+    String normalized = normalizer(false).normalize("<p>Buy 100 AAPL</p><style>p { color: red }");
+
+    assertThat(normalized).contains("Buy 100 AAPL").doesNotContain("color");
+  }
+
+  @Test
+  void textHasNoMarkupStylesOrEntities() {
+    String text =
+        HtmlNormalizer.text(
+            "<html><head><style>p { color: red }</style></head><body>"
+                + "<!--[if mso]><v:shape>vml</v:shape><![endif]-->"
+                + "<table><tr><td>Buy&nbsp;100</td><td>AT&amp;T</td><td>&#8364;180.5</td></tr>"
+                + "</table><p>Q&amp;A &lt;ops&gt; &bogus; &</p></body></html>");
+
+    assertThat(text)
+        .isEqualTo("Buy 100 AT&T \u20ac180.5 Q&A <ops> &bogus; &")
+        .doesNotContain("color", "vml");
+  }
+
+  // From the test classpath, wherever the tests run from
+  private static Path corpus() throws URISyntaxException {
+    return Path.of(HtmlNormalizerTest.class.getResource("/corpus/html").toURI());
+  }
+
+  private static HtmlNormalizer normalizer(boolean stripQuoted) {
+    return new HtmlNormalizer(new SimpleMeterRegistry(), true, stripQuoted);
+  }
+}
@@ -0,0 +1,240 @@
+package org.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.example.EmailParserApplication.MailDropRequest;
+import org.example.EmailParserApplication.MailDropResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+
+// The resilience around AI Lab calls, against a scripted HTTP server: per-attempt timeout, which
+// failures are retried, and how an open circuit and a full bulkhead surface to the caller
+class MailDropClientTest {
+
+  private static final MailDropRequest REQUEST =
+      new MailDropRequest(
+          "aggregated_email_model",
+          "id-1",
+          "ops@bank.com",
+          new String[] {"allocations@bank.com"},
+          new String[0],
+          "Allocation",
+          "Buy 100 AAPL",
+          "2024-01-01T09:00");
+  private static final String RESPONSE = "{\"quotes\":[]}";
+
+  private MockWebServer server;
+  private CircuitBreaker circuitBreaker;
+  private Bulkhead bulkhead;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = new MockWebServer();
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  void timesOutEachAttemptAndRetries() {
+    server.enqueue(json(RESPONSE).setHeadersDelay(2, TimeUnit.SECONDS));
+    server.enqueue(json(RESPONSE));
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofMillis(300), 2);
+
+    long start = System.nanoTime();
+    MailDropResponse response = client.send(REQUEST).block(Duration.ofSeconds(10));
+
+    // The slow first attempt is cut off on its own, the second one answers
+    assertThat(response).isNotNull();
+    assertThat(server.getRequestCount()).isEqualTo(2);
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+  }
+
+  @Test
+  void failsWithTimeoutWhenEveryAttemptTimesOut() {
+    server.enqueue(json(RESPONSE).setHeadersDelay(2, TimeUnit.SECONDS));
+    server.enqueue(json(RESPONSE).setHeadersDelay(2, TimeUnit.SECONDS));
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofMillis(200), 2);
+
+    RuntimeException error =
+        assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+
+    assertThat(error).hasRootCauseInstanceOf(TimeoutException.class);
+    assertThat(EmailParserApplication.parseErrorStatus(error))
+        .isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+    assertThat(server.getRequestCount()).isEqualTo(2);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {429, 502, 503, 504})
+  void retriesOverloadAndGatewayErrors(int status) {
+    server.enqueue(new MockResponse().setResponseCode(status));
+    server.enqueue(json(RESPONSE));
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofSeconds(5), 3);
+
+    assertThat(client.send(REQUEST).block()).isNotNull();
+    assertThat(server.getRequestCount()).isEqualTo(2);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {400, 422, 500})
+  void doesNotRetryOtherErrors(int status) {
+    server.enqueue(new MockResponse().setResponseCode(status));
+    server.enqueue(json(RESPONSE));
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofSeconds(5), 3);
+
+    RuntimeException error =
+        assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+
+    assertThat(error.getCause()).isInstanceOf(WebClientResponseException.class);
+    assertThat(((WebClientResponseException) error.getCause()).getStatusCode().value())
+        .isEqualTo(status);
+    assertThat(server.getRequestCount()).isEqualTo(1);
+  }
+
+  @Test
+  void retriesConnectionErrors() throws IOException {
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = socket.getLocalPort();
+    }
+    MailDropClient client =
+        client("http://localhost:" + closedPort + "/maildrop", Duration.ofSeconds(5), 3);
+
+    RuntimeException error =
+        assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+
+    // Every attempt goes through the circuit breaker, so it saw all three
+    assertThat(error.getCause()).isInstanceOf(WebClientRequestException.class);
+    assertThat(EmailParserApplication.parseErrorStatus(error)).isEqualTo(HttpStatus.BAD_GATEWAY);
+    assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls()).isEqualTo(3);
+  }
+
+  @Test
+  void opensCircuitAfterFailuresAndMapsItTo503() {
+    for (int i = 0; i < 4; i++) {
+      server.enqueue(new MockResponse().setResponseCode(500));
+    }
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofSeconds(5), 3);
+
+    // minimum-calls is 4, all of them failed
+    for (int i = 0; i < 4; i++) {
+      assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+    }
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+    RuntimeException error =
+        assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+
+    // Fails fast: no request, no retry
+    assertThat(error.getCause()).isInstanceOf(CallNotPermittedException.class);
+    assertThat(EmailParserApplication.parseErrorStatus(error))
+        .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    assertThat(server.getRequestCount()).isEqualTo(4);
+  }
+
+  @Test
+  void clientErrorsDoNotOpenTheCircuit() {
+    for (int i = 0; i < 4; i++) {
+      server.enqueue(new MockResponse().setResponseCode(400));
+    }
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofSeconds(5), 3);
+
+    for (int i = 0; i < 4; i++) {
+      assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+    }
+
+    assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  void rejectsCallsOverTheBulkheadAndMapsThemTo503() throws InterruptedException {
+    server.enqueue(json(RESPONSE).setHeadersDelay(2, TimeUnit.SECONDS));
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofSeconds(5), 3);
+
+    // max-concurrent-calls is 1, the first call holds the permit while the server stalls
+    Disposable inFlight = client.send(REQUEST).subscribe(response -> {}, error -> {});
+    try {
+      assertThat(server.takeRequest(5, TimeUnit.SECONDS)).isNotNull();
+
+      RuntimeException error =
+          assertThrows(RuntimeException.class, () -> client.send(REQUEST).block());
+
+      assertThat(error.getCause()).isInstanceOf(BulkheadFullException.class);
+      assertThat(EmailParserApplication.parseErrorStatus(error))
+          .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+      assertThat(server.getRequestCount()).isEqualTo(1);
+    } finally {
+      inFlight.dispose();
+    }
+  }
+
+  @Test
+  void sendsBatchesToTheBatchUrl() throws InterruptedException {
+    server.enqueue(json("[" + RESPONSE + "," + RESPONSE + "]"));
+    MailDropClient client = client(server.url("/maildrop").toString(), Duration.ofSeconds(5), 3);
+
+    List<MailDropResponse> responses = client.sendBatch(List.of(REQUEST, REQUEST)).block();
+
+    assertThat(responses).hasSize(2);
+    assertThat(server.takeRequest().getPath()).isEqualTo("/maildrop/batch");
+  }
+
+  // The client as MailDropClientConfiguration wires it, with small limits so tests stay short
+  private MailDropClient client(String url, Duration timeout, int maxAttempts) {
+    MailDropClientConfiguration configuration = new MailDropClientConfiguration();
+    ReflectionTestUtils.setField(configuration, "failureRateThreshold", 50f);
+    ReflectionTestUtils.setField(configuration, "slowCallDuration", Duration.ofSeconds(30));
+    ReflectionTestUtils.setField(configuration, "slidingWindowSize", 4);
+    ReflectionTestUtils.setField(configuration, "minimumCalls", 4);
+    ReflectionTestUtils.setField(configuration, "waitInOpenState", Duration.ofMinutes(1));
+    ReflectionTestUtils.setField(configuration, "maxConcurrentCalls", 1);
+    circuitBreaker = configuration.mailDropCircuitBreaker(new SimpleMeterRegistry());
+    bulkhead = configuration.mailDropBulkhead(new SimpleMeterRegistry());
+
+    MailDropClient client =
+        new MailDropClient(
+            WebClient.builder().build(),
+            url,
+            url + "/batch",
+            circuitBreaker,
+            bulkhead,
+            new PayloadLogger(Jackson2ObjectMapperBuilder.json().build(), 0.0, 4096, false));
+    ReflectionTestUtils.setField(client, "timeout", timeout);
+    ReflectionTestUtils.setField(client, "maxAttempts", maxAttempts);
+    ReflectionTestUtils.setField(client, "backoff", Duration.ofMillis(10));
+    ReflectionTestUtils.setField(client, "maxBackoff", Duration.ofMillis(50));
+    return client;
+  }
+
+  private static MockResponse json(String body) {
+    return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+  }
+}
@@ -0,0 +1,84 @@
+package org.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.example.PendingEmailChanges.Change;
+import org.junit.jupiter.api.Test;
+
+// Coalescing of pending changes, and putting back a batch the consumer failed on
+class PendingEmailChangesTest {
+
+  @Test
+  void handsOverOnlyTheLatestChangeOfAnEmail() throws InterruptedException {
+    List<Change> handled = new CopyOnWriteArrayList<>();
+    PendingEmailChanges pending =
+        new PendingEmailChanges("test", 10, Duration.ofMillis(10), handled::addAll);
+    pending.put(1, email(1, 1));
+    pending.put(2, email(2, 1));
+    pending.put(1, email(1, 2));
+    pending.start();
+    pending.close(Duration.ofSeconds(5));
+
+    assertThat(handled)
+        .extracting(change -> change.id() + "@" + change.email().version())
+        .containsExactly("1@2", "2@1");
+  }
+
+  @Test
+  void retriesAFailedBatchUnlessTheEmailChangedSince() throws InterruptedException {
+    List<Change> handled = new CopyOnWriteArrayList<>();
+    PendingEmailChanges[] holder = new PendingEmailChanges[1];
+    boolean[] failed = {false};
+    PendingEmailChanges pending =
+        new PendingEmailChanges(
+            "test",
+            10,
+            Duration.ofMillis(10),
+            batch -> {
+              if (!failed[0]) {
+                failed[0] = true;
+                // Email 1 changes again while its first version could not be handled
+                holder[0].put(1, email(1, 2));
+                holder[0].requeue(batch);
+                return;
+              }
+              handled.addAll(batch);
+            });
+    holder[0] = pending;
+    pending.put(1, email(1, 1));
+    pending.put(2, email(2, 1));
+    pending.start();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (handled.size() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    pending.close(Duration.ofSeconds(5));
+
+    assertThat(handled)
+        .extracting(change -> change.id() + "@" + change.email().version())
+        .containsExactlyInAnyOrder("1@2", "2@1");
+  }
+
+  private static Email email(long id, long version) {
+    LocalDateTime createdAt = LocalDateTime.of(2024, 1, 1, 9, 0);
+    return new Email(
+        id,
+        "Allocation",
+        "ops@bank.com",
+        new String[0],
+        new String[0],
+        "Buy 100 AAPL",
+        false,
+        List.of(),
+        false,
+        createdAt,
+        createdAt,
+        version);
+  }
+}
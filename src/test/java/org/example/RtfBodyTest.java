@@ -0,0 +1,43 @@
+package org.example;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+// RTF bodies of MSG files: HTML taken back out of Outlook's encapsulation, other RTF as text
+class RtfBodyTest {
+
+  @Test
+  void deEncapsulatesHtml() {
+    String rtf =
+        "{\\rtf1\\ansi\\ansicpg1252\\fromhtml1 \\deff0{\\fonttbl{\\f0\\fswiss Arial;}}\r\n"
+            + "{\\colortbl\\red0\\green0\\blue255;}\r\n"
+            + "{\\*\\htmltag19 <html>}{\\*\\htmltag34 <head>}"
+            + "{\\*\\htmltag177 <style>p \\{ color: red \\}</style>}{\\*\\htmltag41 </head>}"
+            + "{\\*\\htmltag50 <body>}\\htmlrtf {\\f0\\htmlrtf0 "
+            + "{\\*\\htmltag64 <p>}\\htmlrtf {\\htmlrtf0 Buy 100 AAPL at 180\\'2c5 "
+            + "caf\\'e9\\htmlrtf\\par\\htmlrtf0}"
+            + "{\\*\\htmltag72 </p>}\\htmlrtf }\\htmlrtf0 "
+            + "{\\*\\htmltag58 </body>}{\\*\\htmltag27 </html>}}";
+
+    assertThat(read(rtf))
+        .isEqualTo(
+            "<html><head><style>p { color: red }</style></head><body>"
+                + "<p>Buy 100 AAPL at 180,5 caf\u00e9</p></body></html>");
+  }
+
+  @Test
+  void reducesOtherRtfToText() {
+    String rtf =
+        "{\\rtf1\\ansi\\ansicpg1252\\deff0{\\fonttbl{\\f0 Calibri;}}"
+            + "{\\*\\generator Riched20;}\\viewkind4\\uc1\\pard\\f0\\fs22 "
+            + "Buy 100 AAPL\\par Sell 50 \\b MSFT\\b0  at \\u8364?12\\tab T+2\\par}";
+
+    assertThat(read(rtf)).isEqualTo("Buy 100 AAPL\nSell 50 MSFT at \u20ac12\tT+2");
+  }
+
+  private static String read(String rtf) {
+    return RtfBody.read(rtf.getBytes(StandardCharsets.ISO_8859_1));
+  }
+}